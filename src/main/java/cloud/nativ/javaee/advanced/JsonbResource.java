@@ -1,5 +1,6 @@
 package cloud.nativ.javaee.advanced;
 
+import cloud.nativ.javaee.cbor.CborMessageBodyWriter;
 import lombok.extern.java.Log;
 
 import javax.annotation.PostConstruct;
@@ -11,7 +12,11 @@ import javax.json.bind.annotation.*;
 import javax.json.bind.config.PropertyNamingStrategy;
 import javax.json.bind.config.PropertyOrderStrategy;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.Locale;
@@ -20,14 +25,18 @@ import java.util.logging.Level;
 @Log
 @ApplicationScoped
 @Path("json-b")
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, CborMessageBodyWriter.APPLICATION_CBOR + "; qs=0.5"})
 public class JsonbResource {
 
     private Jsonb jsonb;
+    private Jsonb cborJsonb;
 
     private JsonbPojo defaultJsonbPojo;
     private JsonbPojo customJsonbPojo;
 
+    private final ResourceVersion defaultVersion = new ResourceVersion();
+    private final ResourceVersion customVersion = new ResourceVersion();
+
     @PostConstruct
     @HEAD
     public void initialize() {
@@ -43,12 +52,17 @@ public class JsonbResource {
 
         jsonb = JsonbBuilder.newBuilder()
                 .withConfig(jsonbConfig).build();
+        cborJsonb = CborMessageBodyWriter.createJsonb(jsonbConfig);
+
+        // also called on HEAD requests, which reset the state
+        defaultVersion.changed();
+        customVersion.changed();
     }
 
     @GET
     @Path("/default")
-    public JsonbPojo marshall() {
-        return defaultJsonbPojo;
+    public Response marshall(@Context Request request) {
+        return defaultVersion.evaluate(request, () -> defaultJsonbPojo);
     }
 
     @POST
@@ -56,18 +70,31 @@ public class JsonbResource {
     public void unmarshall(JsonbPojo pojo) {
         LOGGER.log(Level.INFO, "Default Unmarshalled {0}", pojo);
         this.defaultJsonbPojo = pojo;
+        defaultVersion.changed();
+    }
+
+    @GET
+    @Path("/custom")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response marshallCustom(@Context Request request) {
+        return customVersion.evaluate(request, () -> jsonb.toJson(customJsonbPojo));
     }
 
     @GET
     @Path("/custom")
-    public String marshallCustom() {
-        return jsonb.toJson(customJsonbPojo);
+    @Produces(CborMessageBodyWriter.APPLICATION_CBOR + "; qs=0.5")
+    public Response marshallCustomCbor(@Context Request request) {
+        return customVersion.evaluate(request, () -> {
+            JsonbPojo pojo = customJsonbPojo;
+            return (StreamingOutput) output -> cborJsonb.toJson(pojo, output);
+        });
     }
 
     @POST
     @Path("/custom")
     public void unmarshallCustom(String jsonBody) {
         customJsonbPojo = jsonb.fromJson(jsonBody, JsonbPojo.class);
+        customVersion.changed();
         LOGGER.log(Level.INFO, "Custom Unmarshalled {0}", customJsonbPojo);
     }
 
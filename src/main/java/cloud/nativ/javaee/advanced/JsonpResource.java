@@ -1,22 +1,27 @@
 package cloud.nativ.javaee.advanced;
 
+import cloud.nativ.javaee.cbor.CborMessageBodyWriter;
 import lombok.extern.java.Log;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.json.*;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import java.io.InputStream;
 import java.util.logging.Level;
 
 @Log
 @ApplicationScoped
 @Path("json-p")
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, CborMessageBodyWriter.APPLICATION_CBOR + "; qs=0.5"})
 public class JsonpResource {
 
     private JsonArray jsonArray;
+    private final ResourceVersion version = new ResourceVersion();
 
     @PostConstruct
     @HEAD
@@ -32,11 +37,13 @@ public class JsonpResource {
                         .add("aInteger", 23)
                         .add("aBoolean", true))
                 .build();
+        // also called on HEAD requests, which reset the state
+        version.changed();
     }
 
     @GET
-    public JsonArray marshall() {
-        return jsonArray;
+    public Response marshall(@Context Request request) {
+        return version.evaluate(request, () -> jsonArray);
     }
 
     @POST
@@ -45,6 +52,7 @@ public class JsonpResource {
         try (JsonReader reader = Json.createReader(jsonBody)) {
             this.jsonArray = reader.readArray();
         }
+        version.changed();
 
         LOGGER.log(Level.INFO, "Unmarshalled JSON-P {0}.", jsonArray);
     }
@@ -56,6 +64,7 @@ public class JsonpResource {
 
         JsonPatch jsonPatch = Json.createPatchBuilder(jsonPatchArray).build();
         this.jsonArray = jsonPatch.apply(jsonArray);
+        version.changed();
         LOGGER.log(Level.INFO, "Patched {0}.", jsonArray);
     }
 }
@@ -0,0 +1,50 @@
+package cloud.nativ.javaee.advanced;
+
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Version of a resource state that only changes on writes, used for conditional GET requests.
+ * The ETag is weak, since the JSON and CBOR representations of a version are equivalent.
+ */
+class ResourceVersion {
+
+    private static final CacheControl REVALIDATE = CacheControl.valueOf("no-cache");
+
+    // start with the current time, so versions differ across restarts
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+    private volatile long lastModified = System.currentTimeMillis();
+
+    /**
+     * Mark the resource state as changed.
+     */
+    void changed() {
+        version.incrementAndGet();
+        lastModified = System.currentTimeMillis();
+    }
+
+    /**
+     * Evaluate the preconditions of the request against the current version.
+     *
+     * @param request the request
+     * @param entity  supplies the entity, only called if the client's version is outdated
+     * @return a 304 response, or a 200 response with the entity
+     */
+    Response evaluate(Request request, Supplier<Object> entity) {
+        EntityTag etag = new EntityTag(Long.toHexString(version.get()), true);
+        Date modified = new Date(lastModified);
+
+        Response.ResponseBuilder builder = request.evaluatePreconditions(modified, etag);
+        if (builder == null) {
+            builder = Response.ok(entity.get());
+        }
+        return builder.tag(etag).lastModified(modified).cacheControl(REVALIDATE)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+    }
+}
@@ -0,0 +1,247 @@
+package cloud.nativ.javaee.cbor;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * A {@link JsonGenerator} writing CBOR instead of JSON text, so everything producing JSON-P
+ * generator events can stream CBOR. Objects and arrays are written with indefinite length.
+ */
+public class CborJsonGenerator implements JsonGenerator {
+
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final OutputStream output;
+    private final CborWriter writer;
+
+    public CborJsonGenerator(OutputStream output) {
+        this.output = new BufferedOutputStream(output);
+        this.writer = new CborWriter(this.output);
+    }
+
+    @Override
+    public JsonGenerator writeStartObject() {
+        try {
+            writer.writeStartMap();
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartObject(String name) {
+        return writeKey(name).writeStartObject();
+    }
+
+    @Override
+    public JsonGenerator writeKey(String name) {
+        return write(name);
+    }
+
+    @Override
+    public JsonGenerator writeStartArray() {
+        try {
+            writer.writeStartArray();
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartArray(String name) {
+        return writeKey(name).writeStartArray();
+    }
+
+    @Override
+    public JsonGenerator write(String name, JsonValue value) {
+        return writeKey(name).write(value);
+    }
+
+    @Override
+    public JsonGenerator write(String name, String value) {
+        return writeKey(name).write(value);
+    }
+
+    @Override
+    public JsonGenerator write(String name, BigInteger value) {
+        return writeKey(name).write(value);
+    }
+
+    @Override
+    public JsonGenerator write(String name, BigDecimal value) {
+        return writeKey(name).write(value);
+    }
+
+    @Override
+    public JsonGenerator write(String name, int value) {
+        return writeKey(name).write(value);
+    }
+
+    @Override
+    public JsonGenerator write(String name, long value) {
+        return writeKey(name).write(value);
+    }
+
+    @Override
+    public JsonGenerator write(String name, double value) {
+        return writeKey(name).write(value);
+    }
+
+    @Override
+    public JsonGenerator write(String name, boolean value) {
+        return writeKey(name).write(value);
+    }
+
+    @Override
+    public JsonGenerator writeNull(String name) {
+        return writeKey(name).writeNull();
+    }
+
+    @Override
+    public JsonGenerator writeEnd() {
+        try {
+            writer.writeEnd();
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(JsonValue value) {
+        switch (value.getValueType()) {
+            case OBJECT:
+                writeStartObject();
+                for (Map.Entry<String, JsonValue> entry : ((JsonObject) value).entrySet()) {
+                    write(entry.getKey(), entry.getValue());
+                }
+                return writeEnd();
+            case ARRAY:
+                writeStartArray();
+                for (JsonValue element : (JsonArray) value) {
+                    write(element);
+                }
+                return writeEnd();
+            case STRING:
+                return write(((JsonString) value).getString());
+            case NUMBER:
+                JsonNumber number = (JsonNumber) value;
+                return number.isIntegral() ? write(number.bigIntegerValue()) : write(number.doubleValue());
+            case TRUE:
+                return write(true);
+            case FALSE:
+                return write(false);
+            default:
+                return writeNull();
+        }
+    }
+
+    @Override
+    public JsonGenerator write(String value) {
+        try {
+            writer.write(value);
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(BigDecimal value) {
+        try {
+            value.longValueExact();
+            return write(value.longValue());
+        } catch (ArithmeticException e) {
+            return write(value.doubleValue());
+        }
+    }
+
+    @Override
+    public JsonGenerator write(BigInteger value) {
+        if (value.compareTo(MIN_LONG) >= 0 && value.compareTo(MAX_LONG) <= 0) {
+            return write(value.longValue());
+        }
+        return write(value.doubleValue());
+    }
+
+    @Override
+    public JsonGenerator write(int value) {
+        return write((long) value);
+    }
+
+    @Override
+    public JsonGenerator write(long value) {
+        try {
+            writer.write(value);
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(double value) {
+        try {
+            writer.write(value);
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(boolean value) {
+        try {
+            writer.write(value);
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeNull() {
+        try {
+            writer.writeNull();
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw generationException(e);
+        }
+    }
+
+    /**
+     * Flushes the generator, the underlying stream is left open, it is owned by the caller,
+     * e.g. the JAX-RS entity stream owned by the container.
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private static JsonGenerationException generationException(IOException e) {
+        return new JsonGenerationException("Could not write CBOR.", e);
+    }
+}
@@ -0,0 +1,178 @@
+package cloud.nativ.javaee.cbor;
+
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonString;
+import javax.json.JsonWriter;
+import javax.json.JsonWriterFactory;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * JSON-P provider creating {@link CborJsonGenerator}s for output streams, everything else is delegated
+ * to the default provider. Used with {@link javax.json.bind.JsonbBuilder#withProvider(JsonProvider)}
+ * to let JSON-B serialize objects directly to CBOR.
+ */
+public class CborJsonProvider extends JsonProvider {
+
+    private final JsonProvider delegate = JsonProvider.provider();
+
+    @Override
+    public JsonGenerator createGenerator(OutputStream out) {
+        return new CborJsonGenerator(out);
+    }
+
+    @Override
+    public JsonGenerator createGenerator(Writer writer) {
+        throw new JsonException("CBOR is a binary format, use an output stream.");
+    }
+
+    @Override
+    public JsonGeneratorFactory createGeneratorFactory(Map<String, ?> config) {
+        return new JsonGeneratorFactory() {
+            @Override
+            public JsonGenerator createGenerator(Writer writer) {
+                return CborJsonProvider.this.createGenerator(writer);
+            }
+
+            @Override
+            public JsonGenerator createGenerator(OutputStream out) {
+                return new CborJsonGenerator(out);
+            }
+
+            @Override
+            public JsonGenerator createGenerator(OutputStream out, Charset charset) {
+                return new CborJsonGenerator(out);
+            }
+
+            @Override
+            public Map<String, ?> getConfigInUse() {
+                return Collections.emptyMap();
+            }
+        };
+    }
+
+    @Override
+    public JsonParser createParser(Reader reader) {
+        return delegate.createParser(reader);
+    }
+
+    @Override
+    public JsonParser createParser(InputStream in) {
+        return delegate.createParser(in);
+    }
+
+    @Override
+    public JsonParserFactory createParserFactory(Map<String, ?> config) {
+        return delegate.createParserFactory(config);
+    }
+
+    @Override
+    public JsonReader createReader(Reader reader) {
+        return delegate.createReader(reader);
+    }
+
+    @Override
+    public JsonReader createReader(InputStream in) {
+        return delegate.createReader(in);
+    }
+
+    @Override
+    public JsonWriter createWriter(Writer writer) {
+        return delegate.createWriter(writer);
+    }
+
+    @Override
+    public JsonWriter createWriter(OutputStream out) {
+        return delegate.createWriter(out);
+    }
+
+    @Override
+    public JsonWriterFactory createWriterFactory(Map<String, ?> config) {
+        return delegate.createWriterFactory(config);
+    }
+
+    @Override
+    public JsonReaderFactory createReaderFactory(Map<String, ?> config) {
+        return delegate.createReaderFactory(config);
+    }
+
+    @Override
+    public JsonObjectBuilder createObjectBuilder() {
+        return delegate.createObjectBuilder();
+    }
+
+    @Override
+    public JsonObjectBuilder createObjectBuilder(JsonObject object) {
+        return delegate.createObjectBuilder(object);
+    }
+
+    @Override
+    public JsonObjectBuilder createObjectBuilder(Map<String, Object> map) {
+        return delegate.createObjectBuilder(map);
+    }
+
+    @Override
+    public JsonArrayBuilder createArrayBuilder() {
+        return delegate.createArrayBuilder();
+    }
+
+    @Override
+    public JsonArrayBuilder createArrayBuilder(JsonArray array) {
+        return delegate.createArrayBuilder(array);
+    }
+
+    @Override
+    public JsonBuilderFactory createBuilderFactory(Map<String, ?> config) {
+        return delegate.createBuilderFactory(config);
+    }
+
+    @Override
+    public JsonString createValue(String value) {
+        return delegate.createValue(value);
+    }
+
+    @Override
+    public JsonNumber createValue(int value) {
+        return delegate.createValue(value);
+    }
+
+    @Override
+    public JsonNumber createValue(long value) {
+        return delegate.createValue(value);
+    }
+
+    @Override
+    public JsonNumber createValue(double value) {
+        return delegate.createValue(value);
+    }
+
+    @Override
+    public JsonNumber createValue(BigDecimal value) {
+        return delegate.createValue(value);
+    }
+
+    @Override
+    public JsonNumber createValue(BigInteger value) {
+        return delegate.createValue(value);
+    }
+}
@@ -0,0 +1,67 @@
+package cloud.nativ.javaee.cbor;
+
+import javax.json.JsonValue;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.json.bind.JsonbConfig;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes JSON-P values and JSON-B mapped objects as CBOR, streaming the generator events
+ * directly to the entity stream without an intermediate JSON document.
+ */
+@Provider
+@Produces(CborMessageBodyWriter.APPLICATION_CBOR)
+public class CborMessageBodyWriter implements MessageBodyWriter<Object> {
+
+    /**
+     * MediaType for CBOR, see RFC 7049.
+     */
+    public static final String APPLICATION_CBOR = "application/cbor";
+
+    /**
+     * MediaType for CBOR, see RFC 7049.
+     */
+    public static final MediaType APPLICATION_CBOR_TYPE = MediaType.valueOf(APPLICATION_CBOR);
+
+    private static final Jsonb JSONB = createJsonb(new JsonbConfig());
+
+    /**
+     * Create a JSON-B instance serializing to CBOR when writing to output streams.
+     *
+     * @param config the JSON-B configuration
+     * @return the JSON-B instance
+     */
+    public static Jsonb createJsonb(JsonbConfig config) {
+        return JsonbBuilder.newBuilder().withConfig(config).withProvider(new CborJsonProvider()).build();
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        // raw content is left to the built-in providers
+        return !String.class.equals(type) && !byte[].class.equals(type)
+                && !InputStream.class.isAssignableFrom(type) && !StreamingOutput.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) {
+        if (value instanceof JsonValue) {
+            JsonGenerator generator = new CborJsonGenerator(entityStream);
+            generator.write((JsonValue) value);
+            generator.flush();
+        } else {
+            JSONB.toJson(value, genericType, entityStream);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package cloud.nativ.javaee.cbor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal CBOR (RFC 7049) reader for definite length maps with text keys
+ * and text, integer or null values, as written by {@link CborWriter}.
+ */
+public class CborReader {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_MAP = 5;
+    private static final int NULL = 0xf6;
+
+    private final InputStream input;
+    private int head = -1;
+
+    public CborReader(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Read the start of a definite length map.
+     *
+     * @return the number of entries
+     * @throws IOException if reading fails or the next item is no map
+     */
+    public int readStartMap() throws IOException {
+        return (int) readHead(MAJOR_MAP);
+    }
+
+    public String readText() throws IOException {
+        if (peek() == NULL) {
+            head = -1;
+            return null;
+        }
+        int length = (int) readHead(MAJOR_TEXT);
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = input.read(bytes, read, length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated CBOR text.");
+            }
+            read += count;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long readLong() throws IOException {
+        if (peek() >>> 5 == MAJOR_NEGATIVE) {
+            return -1 - readHead(MAJOR_NEGATIVE);
+        }
+        return readHead(MAJOR_UNSIGNED);
+    }
+
+    /**
+     * Skip a value of a type supported by this reader.
+     *
+     * @throws IOException if reading fails or the value type is not supported
+     */
+    public void skipValue() throws IOException {
+        int next = peek();
+        int major = next >>> 5;
+        if (next == NULL) {
+            head = -1;
+        } else if (major == MAJOR_TEXT) {
+            readText();
+        } else if (major == MAJOR_UNSIGNED || major == MAJOR_NEGATIVE) {
+            readLong();
+        } else if (major == MAJOR_MAP) {
+            int size = readStartMap();
+            for (int i = 0; i < size; i++) {
+                skipValue();
+                skipValue();
+            }
+        } else {
+            throw new IOException("Unsupported CBOR item " + Integer.toHexString(next));
+        }
+    }
+
+    private int peek() throws IOException {
+        if (head < 0) {
+            head = input.read();
+            if (head < 0) {
+                throw new EOFException("Truncated CBOR item.");
+            }
+        }
+        return head;
+    }
+
+    private long readHead(int majorType) throws IOException {
+        int initial = peek();
+        head = -1;
+        if (initial >>> 5 != majorType) {
+            throw new IOException("Expected CBOR major type " + majorType + " but got " + (initial >>> 5));
+        }
+
+        int additional = initial & 0x1f;
+        if (additional < 24) {
+            return additional;
+        }
+        switch (additional) {
+            case 24:
+                return readBytes(1);
+            case 25:
+                return readBytes(2);
+            case 26:
+                return readBytes(4);
+            case 27:
+                return readBytes(8);
+            default:
+                throw new IOException("Unsupported CBOR length " + additional);
+        }
+    }
+
+    private long readBytes(int count) throws IOException {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException("Truncated CBOR item.");
+            }
+            value = value << 8 | b;
+        }
+        return value;
+    }
+}
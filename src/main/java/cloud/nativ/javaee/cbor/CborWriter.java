@@ -0,0 +1,117 @@
+package cloud.nativ.javaee.cbor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal streaming CBOR (RFC 7049) writer for the data types of JSON documents.
+ */
+public class CborWriter {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+
+    private static final int INDEFINITE = 31;
+
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int DOUBLE = 0xfb;
+    private static final int BREAK = 0xff;
+
+    private final OutputStream output;
+
+    public CborWriter(OutputStream output) {
+        this.output = output;
+    }
+
+    public CborWriter writeStartMap(int size) throws IOException {
+        writeHead(MAJOR_MAP, size);
+        return this;
+    }
+
+    public CborWriter writeStartMap() throws IOException {
+        output.write(MAJOR_MAP << 5 | INDEFINITE);
+        return this;
+    }
+
+    public CborWriter writeStartArray() throws IOException {
+        output.write(MAJOR_ARRAY << 5 | INDEFINITE);
+        return this;
+    }
+
+    /**
+     * Ends an indefinite length map or array.
+     *
+     * @return this writer
+     * @throws IOException if writing fails
+     */
+    public CborWriter writeEnd() throws IOException {
+        output.write(BREAK);
+        return this;
+    }
+
+    public CborWriter write(String value) throws IOException {
+        if (value == null) {
+            return writeNull();
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeHead(MAJOR_TEXT, bytes.length);
+        output.write(bytes);
+        return this;
+    }
+
+    public CborWriter write(long value) throws IOException {
+        if (value >= 0) {
+            writeHead(MAJOR_UNSIGNED, value);
+        } else {
+            writeHead(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    public CborWriter write(double value) throws IOException {
+        output.write(DOUBLE);
+        writeBytes(Double.doubleToLongBits(value), 8);
+        return this;
+    }
+
+    public CborWriter write(boolean value) throws IOException {
+        output.write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public CborWriter writeNull() throws IOException {
+        output.write(NULL);
+        return this;
+    }
+
+    private void writeHead(int majorType, long value) throws IOException {
+        int major = majorType << 5;
+        if (value < 24) {
+            output.write(major | (int) value);
+        } else if (value <= 0xffL) {
+            output.write(major | 24);
+            writeBytes(value, 1);
+        } else if (value <= 0xffffL) {
+            output.write(major | 25);
+            writeBytes(value, 2);
+        } else if (value <= 0xffffffffL) {
+            output.write(major | 26);
+            writeBytes(value, 4);
+        } else {
+            output.write(major | 27);
+            writeBytes(value, 8);
+        }
+    }
+
+    private void writeBytes(long value, int count) throws IOException {
+        for (int i = count - 1; i >= 0; i--) {
+            output.write((int) (value >>> (i * 8)));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cloud.nativ.javaee.weather;
+
+import cloud.nativ.javaee.cbor.CborWriter;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the weather for several cities as NDJSON, or as indefinite length CBOR array. Cache hits are written right away,
+ * misses are fetched in parallel with bounded concurrency and written as soon as they complete.
+ * Misses not fetched within the timeout are written with the fallback weather, so every city gets a line.
+ */
+class BulkWeatherOutput implements StreamingOutput {
+
+    private static final long RESULT_TIMEOUT_SECONDS = 15L;
+
+    private final OpenWeatherMapRepository repository;
+    private final Collection<String> cities;
+    private final int concurrency;
+    private final boolean cbor;
+
+    private final Queue<String> misses = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<CurrentWeather> results = new LinkedBlockingQueue<>();
+
+    BulkWeatherOutput(OpenWeatherMapRepository repository, Collection<String> cities, int concurrency, boolean cbor) {
+        this.repository = repository;
+        this.cities = new LinkedHashSet<>(cities);
+        this.concurrency = Math.max(1, concurrency);
+        this.cbor = cbor;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        if (cbor) {
+            new CborWriter(output).writeStartArray();
+        }
+
+        for (String city : cities) {
+            Optional<String> cached = repository.getCachedWeather(city);
+            if (cached.isPresent()) {
+                writeLine(output, new CurrentWeather(city, cached.get()));
+            } else {
+                misses.add(city);
+            }
+        }
+
+        Set<String> pending = new LinkedHashSet<>(misses);
+        for (int i = 0; i < concurrency; i++) {
+            fetchNext();
+        }
+
+        try {
+            while (!pending.isEmpty()) {
+                CurrentWeather result = results.poll(RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (result == null) {
+                    break;
+                }
+                if (pending.remove(result.getCity())) {
+                    writeLine(output, result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // every requested city gets a line, cities still pending after the timeout get the fallback
+        misses.clear();
+        for (String city : pending) {
+            writeLine(output, new CurrentWeather(city, repository.defaultWeather(city)));
+        }
+
+        if (cbor) {
+            new CborWriter(output).writeEnd();
+            output.flush();
+        }
+    }
+
+    private void fetchNext() {
+        String city = misses.poll();
+        if (city == null) {
+            return;
+        }
+        repository.getWeatherAsync(city).whenComplete((weather, throwable) -> {
+            results.add(new CurrentWeather(city, throwable == null ? weather : repository.defaultWeather(city)));
+            fetchNext();
+        });
+    }
+
+    private void writeLine(OutputStream output, CurrentWeather currentWeather) throws IOException {
+        if (cbor) {
+            output.write(CurrentWeatherCodec.toEventCbor(currentWeather));
+        } else {
+            output.write(CurrentWeatherCodec.toEventBytes(currentWeather));
+            output.write('\n');
+        }
+        output.flush();
+    }
+}
@@ -0,0 +1,52 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.Value;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+/**
+ * The value stored in the weatherCache, the weather plus the time it was fetched and the time it last changed.
+ */
+@Value
+public class CachedWeather implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private String city;
+    private String weather;
+    private long fetchedAt;
+    private long changedAt;
+
+    public CachedWeather(String city, String weather, long fetchedAt) {
+        this(city, weather, fetchedAt, fetchedAt);
+    }
+
+    public CachedWeather(String city, String weather, long fetchedAt, long changedAt) {
+        this.city = city;
+        this.weather = weather;
+        this.fetchedAt = fetchedAt;
+        this.changedAt = changedAt;
+    }
+
+    /**
+     * A refreshed entry, which keeps the change time of this entry if the weather did not change.
+     *
+     * @param refreshedWeather the refreshed weather
+     * @param refreshedAt      the time it was fetched
+     * @return the refreshed entry
+     */
+    public CachedWeather refreshed(String refreshedWeather, long refreshedAt) {
+        return new CachedWeather(city, refreshedWeather, refreshedAt, weather.equals(refreshedWeather) ? changedAt : refreshedAt);
+    }
+
+    /**
+     * Check the age of this entry against the given time to live.
+     *
+     * @param ttl the time to live
+     * @return true if this entry was fetched longer ago than the TTL
+     */
+    public boolean isOlderThan(Duration ttl) {
+        return System.currentTimeMillis() - fetchedAt > ttl.toMillis();
+    }
+}
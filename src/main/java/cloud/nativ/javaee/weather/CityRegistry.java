@@ -0,0 +1,247 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.json.stream.JsonParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of known cities. City keys are normalized to a canonical form, e.g. {@code munich, DE} and
+ * {@code Munich,de} both become {@code munich,de}. The canonical key only depends on the requested city,
+ * so all cluster members agree on it. Every known city has a compact integer ID, one interned key instance
+ * and a display name. Cities are registered once fetched successfully, or bulk loaded from an
+ * OpenWeatherMap city.list.json file, which also provides their OpenWeatherMap IDs and display names.
+ * <p>
+ * The integer IDs are assigned locally and differ between cluster members, they are never persisted or sent.
+ */
+@Log
+@ApplicationScoped
+public class CityRegistry {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Inject
+    @ConfigProperty(name = "weather.cities.file", defaultValue = "")
+    private String citiesFile;
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    // keyed by the canonical key, sorted for prefix lookups
+    private final ConcurrentNavigableMap<String, City> cities = new ConcurrentSkipListMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    void startup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        if (!citiesFile.isEmpty()) {
+            executorService.execute(this::loadCitiesFile);
+        }
+    }
+
+    /**
+     * Normalize the city to its canonical key, the interned registered key if the city is known.
+     *
+     * @param city the city as requested, e.g. {@code " Munich , DE"}
+     * @return the canonical key, e.g. {@code "munich,de"}
+     */
+    public String canonical(String city) {
+        String normalized = normalize(city);
+        City known = cities.get(normalized);
+        return known != null ? known.key : normalized;
+    }
+
+    /**
+     * Get the compact ID of the city, registering it if unknown.
+     *
+     * @param city the canonical city key
+     * @return the ID
+     */
+    public int idOf(String city) {
+        return register(city, 0L).id;
+    }
+
+    /**
+     * Get the OpenWeatherMap ID of the city.
+     *
+     * @param city the canonical city key
+     * @return the OpenWeatherMap ID, or 0 if unknown
+     */
+    public long openWeatherMapIdOf(String city) {
+        City known = cities.get(city);
+        return known != null ? known.openWeatherMapId : 0L;
+    }
+
+    /**
+     * Get the display name of the city, e.g. {@code Munich,de} as spelled in the city list.
+     *
+     * @param city the canonical city key
+     * @return the display name, or the key if unknown
+     */
+    public String displayNameOf(String city) {
+        City known = cities.get(city);
+        return known != null ? known.displayName : city;
+    }
+
+    /**
+     * Register the city, or remember the OpenWeatherMap ID of an already registered city.
+     *
+     * @param city             the canonical city key
+     * @param openWeatherMapId the OpenWeatherMap ID, 0 if unknown
+     * @return the registered city
+     */
+    public City register(String city, long openWeatherMapId) {
+        return register(city, city, openWeatherMapId);
+    }
+
+    private City register(String city, String displayName, long openWeatherMapId) {
+        City registered = cities.computeIfAbsent(city, key -> new City(nextId.getAndIncrement(), key.intern(), displayName));
+        if (openWeatherMapId != 0L) {
+            registered.openWeatherMapId = openWeatherMapId;
+        }
+        return registered;
+    }
+
+    /**
+     * Find known cities starting with the given prefix, ignoring case.
+     *
+     * @param prefix the prefix
+     * @param limit  the maximum number of results
+     * @return the display names of the matching cities, in alphabetical order
+     */
+    public List<String> findByPrefix(String prefix, int limit) {
+        String from = WHITESPACE.matcher(prefix.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+        List<String> matches = new ArrayList<>();
+        for (City city : cities.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            if (matches.size() >= limit) {
+                break;
+            }
+            matches.add(city.displayName);
+        }
+        return matches;
+    }
+
+    @Gauge(name = "weatherRegisteredCities", unit = "none", absolute = true)
+    public int size() {
+        return cities.size();
+    }
+
+    static String normalize(String city) {
+        return displayName(city).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Normalize whitespace and commas but keep the case, e.g. {@code "Munich , DE"} becomes {@code "Munich,DE"}.
+     */
+    private static String displayName(String city) {
+        String[] parts = city.split(",");
+        StringBuilder normalized = new StringBuilder(city.length());
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                normalized.append(',');
+            }
+            normalized.append(WHITESPACE.matcher(parts[i].trim()).replaceAll(" "));
+        }
+        return normalized.toString();
+    }
+
+    private void loadCitiesFile() {
+        int loaded = 0;
+        try (InputStream input = Files.newInputStream(Paths.get(citiesFile));
+             JsonParser parser = WeatherObservationReader.PARSER_FACTORY.createParser(input)) {
+            if (parser.next() != JsonParser.Event.START_ARRAY) {
+                throw new IllegalArgumentException("Expected city list JSON array.");
+            }
+            while (parser.next() == JsonParser.Event.START_OBJECT) {
+                if (readCity(parser)) {
+                    loaded++;
+                }
+            }
+            LOGGER.log(Level.INFO, "Loaded {0} cities from {1}.", new Object[]{loaded, citiesFile});
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not load cities from " + citiesFile + " after " + loaded + " cities.", e);
+        }
+    }
+
+    private boolean readCity(JsonParser parser) {
+        long id = 0L;
+        String name = null;
+        String country = null;
+        while (parser.next() != JsonParser.Event.END_OBJECT) {
+            String key = parser.getString();
+            if ("id".equals(key)) {
+                parser.next();
+                id = parser.getLong();
+            } else if ("name".equals(key)) {
+                parser.next();
+                name = parser.getString();
+            } else if ("country".equals(key)) {
+                parser.next();
+                country = parser.getString();
+            } else {
+                WeatherObservationReader.skipValue(parser);
+            }
+        }
+
+        if (id == 0L || name == null || name.trim().isEmpty()) {
+            return false;
+        }
+        String displayName = displayName(country == null || country.isEmpty() ? name : name + "," + country);
+        City registered = register(normalize(displayName), displayName, 0L);
+        if (registered.openWeatherMapId != 0L) {
+            // the list contains duplicate names, the first one wins
+            return false;
+        }
+        registered.openWeatherMapId = id;
+        return true;
+    }
+
+    /**
+     * A registered city.
+     */
+    public static class City {
+        private final int id;
+        private final String key;
+        private final String displayName;
+        private volatile long openWeatherMapId;
+
+        private City(int id, String key, String displayName) {
+            this.id = id;
+            this.key = key;
+            this.displayName = displayName;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public long getOpenWeatherMapId() {
+            return openWeatherMapId;
+        }
+    }
+}
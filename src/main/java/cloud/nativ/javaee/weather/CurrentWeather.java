@@ -4,8 +4,6 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
-import javax.json.Json;
-import javax.json.JsonObject;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
@@ -25,11 +23,24 @@ public class CurrentWeather {
     private String weather;
 
     /**
-     * Use JSON-P to build a JSON structure for this instance.
+     * The time this weather was observed, in epoch millis. Used as version, older updates never overwrite newer ones.
+     */
+    @Column(name = "observed_at", nullable = false)
+    private long observedAt;
+
+    public CurrentWeather(String city, String weather) {
+        this(city, weather, System.currentTimeMillis());
+    }
+
+    /**
+     * Check if this weather was observed after the other one. An update with the same observed-at
+     * is not newer, the same as the observed-at guard of the current_weather upsert.
      *
-     * @return the {@link JsonObject}
+     * @param other the other weather, may be null
+     * @return true if this weather is newer
      */
-    public JsonObject toJson() {
-        return Json.createObjectBuilder().add("city", city).add("weather", weather).build();
+    public boolean isNewerThan(CurrentWeather other) {
+        return other == null || observedAt > other.observedAt;
     }
+
 }
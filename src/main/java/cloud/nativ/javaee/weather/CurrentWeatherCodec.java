@@ -0,0 +1,249 @@
+package cloud.nativ.javaee.weather;
+
+import cloud.nativ.javaee.cbor.CborMessageBodyWriter;
+import cloud.nativ.javaee.cbor.CborReader;
+import cloud.nativ.javaee.cbor.CborWriter;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Dedicated JSON codec for {@link CurrentWeather}, using streaming JSON-P generators and parsers
+ * created by shared factories instead of object models or JSON-B reflection.
+ * <p>
+ * There are two formats: the event format with city and weather, as sent to HTTP clients,
+ * and the message format additionally containing the observed-at version, as sent via JMS and Hazelcast.
+ * A missing observed-at decodes as 0, so an unversioned update never supersedes a versioned one.
+ * Both formats are also available as CBOR map with the same keys.
+ */
+@Provider
+@Produces({MediaType.APPLICATION_JSON, WeatherResource.APPLICATION_NDJSON, CborMessageBodyWriter.APPLICATION_CBOR})
+@Consumes(MediaType.APPLICATION_JSON)
+public class CurrentWeatherCodec implements MessageBodyWriter<CurrentWeather>, MessageBodyReader<CurrentWeather> {
+
+    private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(Collections.emptyMap());
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(Collections.emptyMap());
+
+    private static final String CITY = "city";
+    private static final String WEATHER = "weather";
+    private static final String OBSERVED_AT = "observed-at";
+
+    /**
+     * Encode the event format as UTF-8 bytes.
+     *
+     * @param currentWeather the weather
+     * @return the JSON bytes
+     */
+    public static byte[] toEventBytes(CurrentWeather currentWeather) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (JsonGenerator generator = GENERATOR_FACTORY.createGenerator(bytes, StandardCharsets.UTF_8)) {
+            writeEvent(generator, currentWeather);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode the event format as string.
+     *
+     * @param currentWeather the weather
+     * @return the JSON string
+     */
+    public static String toEventJson(CurrentWeather currentWeather) {
+        return new String(toEventBytes(currentWeather), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode the message format as string, the same as the previously used JSON-B mapping.
+     *
+     * @param currentWeather the weather
+     * @return the JSON string
+     */
+    public static String toMessageJson(CurrentWeather currentWeather) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (JsonGenerator generator = GENERATOR_FACTORY.createGenerator(bytes, StandardCharsets.UTF_8)) {
+            generator.writeStartObject();
+            writeNullable(generator, CITY, currentWeather.getCity());
+            generator.write(OBSERVED_AT, currentWeather.getObservedAt());
+            writeNullable(generator, WEATHER, currentWeather.getWeather());
+            generator.writeEnd();
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode the event or message format.
+     *
+     * @param json the JSON string
+     * @return the weather
+     */
+    public static CurrentWeather fromJson(String json) {
+        return read(new StringReader(json));
+    }
+
+    /**
+     * Encode the event format as CBOR.
+     *
+     * @param currentWeather the weather
+     * @return the CBOR bytes
+     */
+    public static byte[] toEventCbor(CurrentWeather currentWeather) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try {
+            new CborWriter(bytes).writeStartMap(2)
+                    .write(CITY).write(currentWeather.getCity())
+                    .write(WEATHER).write(currentWeather.getWeather());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode the message format as CBOR.
+     *
+     * @param currentWeather the weather
+     * @return the CBOR bytes
+     */
+    public static byte[] toMessageCbor(CurrentWeather currentWeather) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        try {
+            new CborWriter(bytes).writeStartMap(3)
+                    .write(CITY).write(currentWeather.getCity())
+                    .write(OBSERVED_AT).write(currentWeather.getObservedAt())
+                    .write(WEATHER).write(currentWeather.getWeather());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the CBOR message format.
+     *
+     * @param cbor the CBOR bytes
+     * @return the weather
+     */
+    public static CurrentWeather fromCbor(byte[] cbor) {
+        CborReader reader = new CborReader(new ByteArrayInputStream(cbor));
+        CurrentWeather currentWeather = new CurrentWeather();
+        try {
+            int size = reader.readStartMap();
+            for (int i = 0; i < size; i++) {
+                String key = reader.readText();
+                if (CITY.equals(key)) {
+                    currentWeather.setCity(reader.readText());
+                } else if (WEATHER.equals(key)) {
+                    currentWeather.setWeather(reader.readText());
+                } else if (OBSERVED_AT.equals(key)) {
+                    currentWeather.setObservedAt(reader.readLong());
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid current weather CBOR.", e);
+        }
+
+        return currentWeather;
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return CurrentWeather.class.equals(type);
+    }
+
+    @Override
+    public void writeTo(CurrentWeather currentWeather, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
+                        OutputStream entityStream) throws IOException {
+        if (mediaType.isCompatible(CborMessageBodyWriter.APPLICATION_CBOR_TYPE)) {
+            entityStream.write(toEventCbor(currentWeather));
+        } else {
+            entityStream.write(toEventBytes(currentWeather));
+        }
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return CurrentWeather.class.equals(type);
+    }
+
+    @Override
+    public CurrentWeather readFrom(Class<CurrentWeather> type, Type genericType, Annotation[] annotations,
+                                   MediaType mediaType, MultivaluedMap<String, String> httpHeaders,
+                                   InputStream entityStream) {
+        // no need to close the parser, the entity stream is closed by the container
+        return read(PARSER_FACTORY.createParser(entityStream));
+    }
+
+    private static CurrentWeather read(Reader reader) {
+        try (JsonParser parser = PARSER_FACTORY.createParser(reader)) {
+            return read(parser);
+        }
+    }
+
+    private static CurrentWeather read(JsonParser parser) {
+        if (parser.next() != JsonParser.Event.START_OBJECT) {
+            throw new IllegalArgumentException("Expected current weather JSON object.");
+        }
+
+        CurrentWeather currentWeather = new CurrentWeather();
+        while (parser.next() != JsonParser.Event.END_OBJECT) {
+            String key = parser.getString();
+            JsonParser.Event value = parser.next();
+            if (value == JsonParser.Event.VALUE_NULL) {
+                continue;
+            }
+
+            if (CITY.equals(key)) {
+                currentWeather.setCity(parser.getString());
+            } else if (WEATHER.equals(key)) {
+                currentWeather.setWeather(parser.getString());
+            } else if (OBSERVED_AT.equals(key)) {
+                currentWeather.setObservedAt(parser.getLong());
+            } else if (value == JsonParser.Event.START_OBJECT) {
+                parser.skipObject();
+            } else if (value == JsonParser.Event.START_ARRAY) {
+                parser.skipArray();
+            }
+        }
+
+        return currentWeather;
+    }
+
+    private static void writeEvent(JsonGenerator generator, CurrentWeather currentWeather) {
+        generator.writeStartObject()
+                .write(CITY, currentWeather.getCity())
+                .write(WEATHER, currentWeather.getWeather())
+                .writeEnd();
+    }
+
+    private static void writeNullable(JsonGenerator generator, String name, String value) {
+        if (value != null) {
+            generator.write(name, value);
+        } else {
+            generator.writeNull(name);
+        }
+    }
+}
@@ -2,22 +2,28 @@ package cloud.nativ.javaee.weather;
 
 import lombok.extern.java.Log;
 
-import javax.annotation.PostConstruct;
 import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJBException;
 import javax.ejb.MessageDriven;
 import javax.inject.Inject;
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.TextMessage;
-import javax.json.bind.Jsonb;
-import javax.json.bind.JsonbBuilder;
-import javax.json.bind.JsonbConfig;
-import javax.json.bind.config.PropertyNamingStrategy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
 /**
  * The message driven bean listener for {@link CurrentWeather} events. The received events are stored.
+ * Both the v1 JSON and the v2 CBOR message format are accepted.
+ * In write-behind mode a message is only acknowledged once the batch containing it has been flushed,
+ * a batch combines the messages of the concurrent sessions, see {@link CurrentWeatherWriteBehind}.
+ * In partitioned mode the messages are stored by one worker per partition of cities, see {@link CurrentWeatherPartitions}.
+ * The number of concurrent sessions is the maxSessions activation property in WEB-INF/ejb-jar.xml.
  */
 @Log
 @MessageDriven(name = "CurrentWeatherMDB", activationConfig = {
@@ -30,39 +36,74 @@ import java.util.logging.Level;
         @ActivationConfigProperty(propertyName = "clientId", propertyValue = "javaee8-service"),
         @ActivationConfigProperty(propertyName = "subscriptionName", propertyValue = "CurrentWeatherMDB"),
         @ActivationConfigProperty(propertyName = "messageSelector",
-                propertyValue = "(JMSType = 'CurrentWeather') AND (contentType = 'application/vnd.weather.v1+json')")
+                propertyValue = "(JMSType = 'CurrentWeather') AND "
+                        + "(contentType IN ('application/vnd.weather.v1+json', 'application/vnd.weather.v2+cbor'))")
 })
 public class CurrentWeatherMDB implements MessageListener {
 
     @Inject
     private CurrentWeatherStorage storage;
-    private Jsonb jsonb;
-
-    @PostConstruct
-    void initialize() {
-        JsonbConfig config = new JsonbConfig().withPropertyNamingStrategy(PropertyNamingStrategy.LOWER_CASE_WITH_DASHES);
-        jsonb = JsonbBuilder.create(config);
-    }
+    @Inject
+    private CurrentWeatherWriteBehind writeBehind;
+    @Inject
+    private CurrentWeatherPartitions partitions;
+    @Inject
+    private CityRegistry cityRegistry;
 
     @Override
     public void onMessage(Message message) {
         LOGGER.log(Level.INFO, "Received inbound message {0}.", message);
 
-        String body = getBody(message);
-        if (body != null) {
-            CurrentWeather currentWeather = jsonb.fromJson(body, CurrentWeather.class);
-            storage.save(currentWeather);
+        CurrentWeather currentWeather = getBody(message);
+        if (currentWeather != null && !isValid(currentWeather)) {
+            // redelivery would fail again, so the message is discarded
+            LOGGER.log(Level.WARNING, "Discarding invalid current weather {0}.", currentWeather);
+        } else if (currentWeather != null) {
+            // messages of older producers may carry non-canonical cities
+            currentWeather.setCity(cityRegistry.canonical(currentWeather.getCity()));
+            if (partitions.isEnabled()) {
+                awaitStored(partitions.dispatch(currentWeather));
+            } else if (writeBehind.isEnabled()) {
+                awaitStored(writeBehind.submit(currentWeather));
+            } else {
+                storage.save(currentWeather);
+            }
+        }
+    }
+
+    private static boolean isValid(CurrentWeather currentWeather) {
+        return currentWeather.getCity() != null && !currentWeather.getCity().trim().isEmpty()
+                && currentWeather.getWeather() != null;
+    }
+
+    private void awaitStored(CompletableFuture<Void> stored) {
+        try {
+            stored.get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EJBException(e);
+        } catch (ExecutionException | TimeoutException e) {
+            // fail the delivery, the message will be redelivered
+            throw new EJBException("Could not store current weather.", e);
         }
     }
 
-    private String getBody(Message message) {
-        String body = null;
+    private CurrentWeather getBody(Message message) {
+        CurrentWeather body = null;
         try {
             if (message instanceof TextMessage) {
-                body = ((TextMessage) message).getText();
+                body = CurrentWeatherCodec.fromJson(((TextMessage) message).getText());
+            } else if (message instanceof BytesMessage) {
+                BytesMessage bytesMessage = (BytesMessage) message;
+                byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+                bytesMessage.readBytes(bytes);
+                body = CurrentWeatherCodec.fromCbor(bytes);
             }
         } catch (JMSException e) {
             LOGGER.log(Level.WARNING, "Could not get message body.", e);
+        } catch (RuntimeException e) {
+            // a malformed payload would fail every redelivery, so the message is discarded
+            LOGGER.log(Level.WARNING, "Discarding message with invalid body.", e);
         }
         return body;
     }
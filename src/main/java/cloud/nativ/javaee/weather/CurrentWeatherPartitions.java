@@ -0,0 +1,149 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Partitioned storage of {@link CurrentWeather} updates. Updates are spread across workers
+ * by hashing the city, so all updates of a city are stored by the same worker while different
+ * cities are stored in parallel. The partitions keep the order in which the MDB sessions dispatch,
+ * but concurrent sessions may dispatch updates of a city out of order. The newest update still
+ * wins, because the upsert only replaces an older observation.
+ * <p>
+ * Each partition queue is bounded, a full partition blocks the dispatching session for a while
+ * and then fails the update, so the message is redelivered later.
+ */
+@Log
+@ApplicationScoped
+public class CurrentWeatherPartitions {
+
+    @Inject
+    private CurrentWeatherStorage storage;
+
+    @Inject
+    private CurrentWeatherWriteBehind writeBehind;
+
+    @Inject
+    private CityRegistry cityRegistry;
+
+    @Inject
+    @ConfigProperty(name = "weather.storage.partitions", defaultValue = "0")
+    private int partitionCount;
+
+    @Inject
+    @ConfigProperty(name = "weather.storage.partition-capacity", defaultValue = "1000")
+    private int partitionCapacity;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private final List<BlockingQueue<PartitionTask>> partitions = new ArrayList<>();
+    private volatile boolean running;
+
+    @PostConstruct
+    void initialize() {
+        if (!isEnabled()) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < partitionCount; i++) {
+            BlockingQueue<PartitionTask> partition = new LinkedBlockingQueue<>(partitionCapacity);
+            partitions.add(partition);
+            // a permanent loop, it must not occupy a thread of the managed executor
+            threadFactory.newThread(() -> work(partition)).start();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+    }
+
+    /**
+     * Partitioned mode is enabled with more than one partition.
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return partitionCount > 1;
+    }
+
+    /**
+     * Dispatch the update to the partition of its city.
+     *
+     * @param currentWeather the update
+     * @return a future completed once the update has been stored
+     */
+    public CompletableFuture<Void> dispatch(CurrentWeather currentWeather) {
+        PartitionTask task = new PartitionTask(currentWeather);
+        // sequential city IDs spread the cities evenly across the partitions
+        int partition = Math.floorMod(cityRegistry.idOf(currentWeather.getCity()), partitions.size());
+        try {
+            if (!partitions.get(partition).offer(task, 10, TimeUnit.SECONDS)) {
+                task.stored.completeExceptionally(new RejectedExecutionException("Partition " + partition + " is full."));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.stored.completeExceptionally(e);
+        }
+        return task.stored;
+    }
+
+    private void work(BlockingQueue<PartitionTask> partition) {
+        try {
+            while (running) {
+                PartitionTask task = partition.poll(1, TimeUnit.SECONDS);
+                if (task != null) {
+                    store(task);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void store(PartitionTask task) {
+        try {
+            if (writeBehind.isEnabled()) {
+                // the write-behind keeps the submission order, no need to wait for the flush here
+                writeBehind.submit(task.currentWeather).whenComplete((v, throwable) -> {
+                    if (throwable != null) {
+                        task.stored.completeExceptionally(throwable);
+                    } else {
+                        task.stored.complete(null);
+                    }
+                });
+            } else {
+                storage.save(task.currentWeather);
+                task.stored.complete(null);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not store " + task.currentWeather, e);
+            task.stored.completeExceptionally(e);
+        }
+    }
+
+    private static class PartitionTask {
+        private final CurrentWeather currentWeather;
+        private final CompletableFuture<Void> stored = new CompletableFuture<>();
+
+        private PartitionTask(CurrentWeather currentWeather) {
+            this.currentWeather = currentWeather;
+        }
+    }
+}
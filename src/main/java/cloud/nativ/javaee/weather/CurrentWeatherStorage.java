@@ -1,17 +1,28 @@
 package cloud.nativ.javaee.weather;
 
 import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
 import javax.transaction.Transactional;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
 import java.util.logging.Level;
 
 /**
- * The JPA storage for {@link CurrentWeather} entities.
+ * The JPA storage for {@link CurrentWeather} entities. Every stored update is also appended to the
+ * {@link WeatherHistory}, unless disabled.
  */
 @Log
 @Stateless
@@ -19,11 +30,110 @@ import java.util.logging.Level;
 @Transactional
 public class CurrentWeatherStorage {
 
+    /**
+     * Idempotent upsert, an update is only applied if it was observed after the stored weather.
+     */
+    private static final String UPSERT_SQL = "INSERT INTO current_weather (city, weather, observed_at) VALUES (?, ?, ?) " +
+            "ON CONFLICT (city) DO UPDATE SET weather = EXCLUDED.weather, observed_at = EXCLUDED.observed_at " +
+            "WHERE current_weather.observed_at < EXCLUDED.observed_at";
+
+    /**
+     * Idempotent append, redelivered updates are ignored.
+     */
+    private static final String APPEND_HISTORY_SQL = "INSERT INTO weather_history (city, weather, observed_at) VALUES (?, ?, ?) " +
+            "ON CONFLICT (city, observed_at) DO NOTHING";
+
     @PersistenceContext
     private EntityManager entityManager;
 
+    @Resource(lookup = "jdbc/WeatherDb")
+    private DataSource dataSource;
+
+    @Inject
+    @ConfigProperty(name = "weather.history.enabled", defaultValue = "true")
+    private boolean historyEnabled;
+
     public void save(CurrentWeather currentWeather) {
         LOGGER.log(Level.INFO, "Saving {0}.", currentWeather);
-        entityManager.merge(currentWeather);
+        entityManager.createNativeQuery(UPSERT_SQL)
+                .setParameter(1, currentWeather.getCity())
+                .setParameter(2, currentWeather.getWeather())
+                .setParameter(3, currentWeather.getObservedAt())
+                .executeUpdate();
+
+        if (historyEnabled) {
+            entityManager.createNativeQuery(APPEND_HISTORY_SQL)
+                    .setParameter(1, currentWeather.getCity())
+                    .setParameter(2, currentWeather.getWeather())
+                    .setParameter(3, currentWeather.getObservedAt())
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Read a page of stored entities, ordered by city. Keyset paginated, so every page is an index range scan.
+     *
+     * @param afterCity the last city of the previous page, or null for the first page
+     * @param pageSize  the maximum number of entities
+     * @return the page, empty after the last page
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public List<CurrentWeather> findPage(String afterCity, int pageSize) {
+        return entityManager.createQuery("SELECT w FROM CurrentWeather w WHERE w.city > :afterCity ORDER BY w.city",
+                CurrentWeather.class)
+                .setParameter("afterCity", afterCity == null ? "" : afterCity)
+                .setMaxResults(pageSize)
+                .getResultList();
+    }
+
+    /**
+     * Insert or update all given entities and append the history, each with one JDBC batch of native statements.
+     *
+     * @param currentWeathers the entities, at most one per city
+     * @param history         all updates to append to the history
+     */
+    public void saveAll(Collection<CurrentWeather> currentWeathers, Collection<CurrentWeather> history) {
+        LOGGER.log(Level.INFO, "Saving batch of {0}.", currentWeathers.size());
+        try (Connection connection = dataSource.getConnection()) {
+            executeBatch(connection, UPSERT_SQL, currentWeathers);
+            if (historyEnabled) {
+                executeBatch(connection, APPEND_HISTORY_SQL, history);
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Could not save batch of current weather.", e);
+        }
+    }
+
+    /**
+     * Read a page of the history of a city, ordered by observation time. Keyset paginated, so every page
+     * is an index range scan on (city, observed_at) regardless of how far the range has been read.
+     *
+     * @param city            the city
+     * @param afterObservedAt exclusive lower bound, the observation time of the last entry of the previous page
+     * @param toObservedAt    exclusive upper bound
+     * @param pageSize        the maximum number of entries
+     * @return the page, empty after the last page
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public List<WeatherHistory> findHistory(String city, long afterObservedAt, long toObservedAt, int pageSize) {
+        return entityManager.createQuery("SELECT h FROM WeatherHistory h WHERE h.city = :city " +
+                "AND h.observedAt > :after AND h.observedAt < :to ORDER BY h.observedAt", WeatherHistory.class)
+                .setParameter("city", city)
+                .setParameter("after", afterObservedAt)
+                .setParameter("to", toObservedAt)
+                .setMaxResults(pageSize)
+                .getResultList();
+    }
+
+    private void executeBatch(Connection connection, String sql, Collection<CurrentWeather> currentWeathers) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (CurrentWeather currentWeather : currentWeathers) {
+                statement.setString(1, currentWeather.getCity());
+                statement.setString(2, currentWeather.getWeather());
+                statement.setLong(3, currentWeather.getObservedAt());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
     }
 }
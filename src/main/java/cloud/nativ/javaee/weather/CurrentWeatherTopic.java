@@ -1,62 +1,200 @@
 package cloud.nativ.javaee.weather;
 
 import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Meter;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Timer;
+import org.eclipse.microprofile.metrics.annotation.Metric;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import javax.ejb.Stateless;
-import javax.enterprise.event.ObservesAsync;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
 import javax.jms.*;
-import javax.json.bind.Jsonb;
-import javax.json.bind.JsonbBuilder;
-import javax.json.bind.JsonbConfig;
-import javax.json.bind.config.PropertyNamingStrategy;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
 /**
- * The topic beans listens for {@link CurrentWeather} events and publishes
- * these via JMS to the jms/WeatherEvents topic. We use JSON-B for marshalling
- * the message payload.
+ * The topic beans receives {@link CurrentWeather} events from the {@link WeatherEventPipeline} and publishes
+ * these via JMS to the jms/WeatherEvents topic. We use the {@link CurrentWeatherCodec} for marshalling
+ * the message payload, either as JSON text or as CBOR bytes, see {@link Format}.
+ * <p>
+ * In a cluster, only the member owning the city key publishes an event, see {@link WeatherEventBus}.
+ * The JMS stage of the {@link WeatherEventPipeline} hands over batches of pending events, which are
+ * sent synchronously in one JTA transaction, on a connection taken from the pool for that batch only.
  */
 @Log
-@Stateless
+@ApplicationScoped
 public class CurrentWeatherTopic {
 
+    static final String CONTENT_TYPE_V1 = "application/vnd.weather.v1+json";
+    static final String CONTENT_TYPE_V2 = "application/vnd.weather.v2+cbor";
+
+    /**
+     * The payload format of published messages.
+     */
+    public enum Format {
+        /**
+         * JSON text messages, application/vnd.weather.v1+json.
+         */
+        V1_JSON,
+        /**
+         * CBOR bytes messages, application/vnd.weather.v2+cbor.
+         */
+        V2_CBOR
+    }
+
     @Resource(lookup = "jms/activeMqConnectionFactory")
     private ConnectionFactory connectionFactory;
 
     @Resource(lookup = "jms/WeatherEvents")
     private Topic destination;
 
-    private Jsonb jsonb;
+    @Resource
+    private UserTransaction userTransaction;
+
+    @Inject
+    private WeatherEventBus eventBus;
+
+    @Inject
+    @ConfigProperty(name = "weather.events.batch-size", defaultValue = "50")
+    private int batchSize;
+
+    @Inject
+    @ConfigProperty(name = "weather.events.format", defaultValue = "V1_JSON")
+    private String format;
+
+    @Inject
+    @Metric(name = "weatherEventsPublished", absolute = true)
+    private Meter publishedEvents;
+
+    @Inject
+    @Metric(name = "weatherEventsFailed", absolute = true)
+    private Counter failedEvents;
+
+    @Inject
+    @Metric(name = "weatherEventsPublishLatency", absolute = true, unit = MetricUnits.NANOSECONDS)
+    private Timer publishLatency;
+
+    private Format messageFormat;
 
     @PostConstruct
     void initialize() {
-        JsonbConfig config = new JsonbConfig()
-                .withFormatting(false)
-                .withPropertyNamingStrategy(PropertyNamingStrategy.LOWER_CASE_WITH_DASHES)
-                .withNullValues(true);
-        jsonb = JsonbBuilder.create(config);
-    }
-
-    public void publish(CurrentWeather currentWeather) {
-        try (Connection connection = connectionFactory.createConnection()) {
-            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            MessageProducer producer = session.createProducer(destination);
-            producer.setTimeToLive(1000 * 30); // 30 saeconds
-
-            TextMessage textMessage = session.createTextMessage(jsonb.toJson(currentWeather));
-            textMessage.setJMSType(CurrentWeather.class.getSimpleName());
-            textMessage.setStringProperty("contentType", "application/vnd.weather.v1+json");
-
-            producer.send(textMessage);
-            LOGGER.log(Level.INFO, "Sent {0} to WeatherEvents destination.", textMessage);
-        } catch (JMSException e) {
-            LOGGER.log(Level.WARNING, "Could not send JMS message.", e);
+        messageFormat = parseFormat(format);
+    }
+
+    /**
+     * Eagerly create the topic on startup, so an invalid message format fails the deployment.
+     *
+     * @param init the application scope initialization event
+     */
+    void startup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        LOGGER.log(Level.FINE, "Weather event topic started, format: {0}", messageFormat);
+    }
+
+    /**
+     * The maximum number of events sent in one batch.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Publish the events of the cities owned by this member, in one batch.
+     *
+     * @param batch the events
+     */
+    public void publish(List<CurrentWeather> batch) {
+        List<CurrentWeather> owned = new ArrayList<>(batch.size());
+        for (CurrentWeather currentWeather : batch) {
+            if (eventBus.isKeyOwner(currentWeather.getCity())) {
+                owned.add(currentWeather);
+            }
+        }
+        if (owned.isEmpty()) {
+            return;
+        }
+
+        try {
+            send(owned);
+        } catch (RuntimeException e) {
+            failedEvents.inc(owned.size());
+            LOGGER.log(Level.WARNING, "Could not send " + owned.size() + " events.", e);
+        }
+    }
+
+    private void send(List<CurrentWeather> batch) {
+        // retry once, the pooled connection may have gone stale
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try (Timer.Context ignored = publishLatency.time()) {
+                userTransaction.begin();
+                try (Connection connection = connectionFactory.createConnection()) {
+                    // the session is enlisted in the JTA transaction, the arguments are ignored
+                    Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+                    MessageProducer producer = session.createProducer(destination);
+                    producer.setTimeToLive(1000 * 30); // 30 seconds
+                    for (CurrentWeather currentWeather : batch) {
+                        producer.send(createMessage(session, messageFormat, currentWeather));
+                    }
+                }
+                userTransaction.commit();
+
+                publishedEvents.mark(batch.size());
+                LOGGER.log(Level.INFO, "Sent {0} events to WeatherEvents destination.", batch.size());
+                return;
+            } catch (JMSException | NotSupportedException | SystemException | RollbackException
+                    | HeuristicMixedException | HeuristicRollbackException e) {
+                LOGGER.log(Level.WARNING, "Could not send JMS messages.", e);
+                rollback();
+            }
         }
+        failedEvents.inc(batch.size());
     }
 
-    public void observe(@ObservesAsync CurrentWeather weatherEvent) {
-        publish(weatherEvent);
+    private void rollback() {
+        try {
+            if (userTransaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                userTransaction.rollback();
+            }
+        } catch (SystemException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not roll back JMS transaction.", e);
+        }
+    }
+
+    private static Format parseFormat(String format) {
+        try {
+            return Format.valueOf(format.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid weather.events.format " + format + ", expected one of V1_JSON, V2_CBOR.", e);
+        }
+    }
+
+    private static Message createMessage(Session session, Format messageFormat, CurrentWeather currentWeather) throws JMSException {
+        Message message;
+        if (messageFormat == Format.V2_CBOR) {
+            BytesMessage bytesMessage = session.createBytesMessage();
+            bytesMessage.writeBytes(CurrentWeatherCodec.toMessageCbor(currentWeather));
+            bytesMessage.setStringProperty("contentType", CONTENT_TYPE_V2);
+            message = bytesMessage;
+        } else {
+            message = session.createTextMessage(CurrentWeatherCodec.toMessageJson(currentWeather));
+            message.setStringProperty("contentType", CONTENT_TYPE_V1);
+        }
+        message.setJMSType(CurrentWeather.class.getSimpleName());
+        return message;
     }
 }
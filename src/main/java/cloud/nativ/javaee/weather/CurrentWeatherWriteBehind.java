@@ -0,0 +1,148 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+/**
+ * Write-behind buffer for {@link CurrentWeather} updates, flushed with group commit: the first update is
+ * flushed right away, and all updates arriving while a batch is being flushed are collected into the next
+ * batch. Updates are collapsed to the latest value per city, the history of the batch keeps all of them.
+ * Batches are flushed one at a time in submission order, a batch is closed at weather.storage.batch-size updates.
+ * <p>
+ * The {@link CurrentWeatherMDB} only acknowledges a message once its batch has been flushed, so each
+ * pending update holds one MDB session. A batch therefore combines at most the updates of the concurrent
+ * sessions, the write-behind saves database round trips under load, it does not decouple the consumers
+ * from a slow database.
+ */
+@Log
+@ApplicationScoped
+public class CurrentWeatherWriteBehind {
+
+    @Inject
+    private CurrentWeatherStorage storage;
+
+    @Inject
+    @ConfigProperty(name = "weather.storage.write-behind", defaultValue = "false")
+    private boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "weather.storage.batch-size", defaultValue = "100")
+    private int batchSize;
+
+    @Inject
+    @Metric(name = "weatherStorageFlushes", absolute = true)
+    private Counter flushes;
+
+    @Inject
+    @Metric(name = "weatherStorageCollapsed", absolute = true)
+    private Counter collapsed;
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    private PendingBatch current = new PendingBatch();
+    private final Deque<PendingBatch> closed = new ArrayDeque<>();
+    private boolean flushing;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Add the update to the current batch, and start flushing it unless a flush is in progress.
+     *
+     * @param currentWeather the update
+     * @return a future completed once the batch containing the update has been flushed
+     */
+    public CompletableFuture<Void> submit(CurrentWeather currentWeather) {
+        PendingBatch batch;
+        PendingBatch flushNow = null;
+        synchronized (this) {
+            batch = current;
+            CurrentWeather previous = batch.updates.get(currentWeather.getCity());
+            if (previous != null) {
+                collapsed.inc();
+            }
+            if (currentWeather.isNewerThan(previous)) {
+                batch.updates.put(currentWeather.getCity(), currentWeather);
+            }
+            // the history keeps every update, only the current weather is collapsed, so it bounds the batch
+            batch.history.add(currentWeather);
+            if (!flushing) {
+                flushing = true;
+                flushNow = next();
+            } else if (batch.history.size() >= batchSize) {
+                closed.addLast(batch);
+                current = new PendingBatch();
+            }
+        }
+
+        if (flushNow != null) {
+            PendingBatch first = flushNow;
+            try {
+                executorService.execute(() -> flushAll(first));
+            } catch (RejectedExecutionException e) {
+                flushAll(first);
+            }
+        }
+        return batch.flushed;
+    }
+
+    /**
+     * Flush the batch, then all batches collected in the meantime, until none is left.
+     */
+    private void flushAll(PendingBatch batch) {
+        while (batch != null) {
+            flush(batch);
+            synchronized (this) {
+                batch = next();
+                flushing = batch != null;
+            }
+        }
+    }
+
+    /**
+     * Take the next batch to flush, must hold the lock.
+     */
+    private PendingBatch next() {
+        PendingBatch batch = closed.pollFirst();
+        if (batch == null && !current.history.isEmpty()) {
+            batch = current;
+            current = new PendingBatch();
+        }
+        return batch;
+    }
+
+    private void flush(PendingBatch batch) {
+        try {
+            storage.saveAll(batch.updates.values(), batch.history);
+            flushes.inc();
+            batch.flushed.complete(null);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not flush batch of current weather.", e);
+            batch.flushed.completeExceptionally(e);
+        }
+    }
+
+    private static class PendingBatch {
+        private final Map<String, CurrentWeather> updates = new LinkedHashMap<>();
+        private final List<CurrentWeather> history = new ArrayList<>();
+        private final CompletableFuture<Void> flushed = new CompletableFuture<>();
+    }
+}
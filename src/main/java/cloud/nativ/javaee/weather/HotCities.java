@@ -0,0 +1,143 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Low-memory tracker of the most requested cities. Request counts are estimated with a count-min sketch,
+ * the cities with the highest estimates are kept as top-K. All counts are halved periodically,
+ * so the top-K follows recent traffic.
+ * <p>
+ * Recording is lock-free: the sketch counters are atomic, and the counts of cities already in the top-K are
+ * updated in a concurrent map. Only a city whose estimate exceeds the tracked minimum of the top-K takes
+ * the lock, to replace the coldest city.
+ */
+@ApplicationScoped
+public class HotCities {
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+    @Inject
+    @ConfigProperty(name = "weather.hot.sketch-width", defaultValue = "2048")
+    private int width;
+
+    @Inject
+    @ConfigProperty(name = "weather.hot.top-k", defaultValue = "100")
+    private int topK;
+
+    private AtomicIntegerArray[] sketch;
+    private final Map<String, Integer> top = new ConcurrentHashMap<>();
+    private final Object admission = new Object();
+    // never above the smallest count of the top-K, so no city is wrongly kept out
+    private volatile int minTop;
+
+    @PostConstruct
+    void initialize() {
+        sketch = new AtomicIntegerArray[DEPTH];
+        for (int i = 0; i < DEPTH; i++) {
+            sketch[i] = new AtomicIntegerArray(Math.max(16, width));
+        }
+    }
+
+    /**
+     * Record a request for the city.
+     *
+     * @param city the city
+     */
+    public void record(String city) {
+        int hash = city.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            AtomicIntegerArray row = sketch[i];
+            int index = Math.floorMod(mix(hash ^ SEEDS[i]), row.length());
+            estimate = Math.min(estimate, row.updateAndGet(index, count -> count < Integer.MAX_VALUE ? count + 1 : count));
+        }
+
+        int count = estimate;
+        if (top.computeIfPresent(city, (key, previous) -> Math.max(previous, count)) != null) {
+            return;
+        }
+        if (top.size() < topK || estimate > minTop) {
+            admit(city, estimate);
+        }
+    }
+
+    private void admit(String city, int estimate) {
+        synchronized (admission) {
+            if (top.size() < topK) {
+                top.merge(city, estimate, Math::max);
+                minTop = top.size() < topK ? 0 : minimum();
+                return;
+            }
+
+            Map.Entry<String, Integer> coldest = null;
+            for (Map.Entry<String, Integer> entry : top.entrySet()) {
+                if (coldest == null || entry.getValue() < coldest.getValue()) {
+                    coldest = entry;
+                }
+            }
+            if (coldest != null && estimate > coldest.getValue()) {
+                top.remove(coldest.getKey());
+                top.put(city, estimate);
+            }
+            minTop = minimum();
+        }
+    }
+
+    private int minimum() {
+        int minimum = Integer.MAX_VALUE;
+        for (int count : top.values()) {
+            minimum = Math.min(minimum, count);
+        }
+        return minimum == Integer.MAX_VALUE ? 0 : minimum;
+    }
+
+    /**
+     * Get the current top-K cities, the hottest first.
+     *
+     * @return the cities with their estimated request counts
+     */
+    public List<Map.Entry<String, Integer>> getTop() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(top.size());
+        top.forEach((city, count) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(city, count)));
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        return entries;
+    }
+
+    /**
+     * Halve all counts, so past traffic fades out.
+     */
+    public void decay() {
+        for (AtomicIntegerArray row : sketch) {
+            for (int i = 0; i < row.length(); i++) {
+                row.updateAndGet(i, count -> count >>> 1);
+            }
+        }
+        synchronized (admission) {
+            minTop = 0;
+            top.replaceAll((city, count) -> count >>> 1);
+            top.values().removeIf(count -> count == 0);
+            minTop = top.size() < topK ? 0 : minimum();
+        }
+    }
+
+    private static int mix(int hash) {
+        // murmur3 finalizer, spreads the bits of String.hashCode
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
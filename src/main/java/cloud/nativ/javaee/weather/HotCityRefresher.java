@@ -0,0 +1,159 @@
+package cloud.nativ.javaee.weather;
+
+import com.hazelcast.core.HazelcastInstance;
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Refreshes the weather of the {@link HotCities} in the background before it becomes stale, so hot cities
+ * are always served from the cache. At most weather.hot.refresh-budget upstream calls per minute are used,
+ * one per tick. Each tick refreshes the hottest cities whose cache entry is missing or older than the
+ * refresh-ahead share of the soft TTL, as many as the {@link OpenWeatherMapBatcher} fetches with one group call.
+ * A city without known OpenWeatherMap ID is refreshed alone, when no group of known cities is due.
+ * <p>
+ * The refresher reads the cache without counting hits, and does not count requests in the {@link HotCities}.
+ * <p>
+ * The budget applies to the whole cluster: each of N members only uses every N-th tick.
+ */
+@Log
+@ApplicationScoped
+public class HotCityRefresher {
+
+    private static final long DECAY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_BUDGET_PER_MINUTE = (int) TimeUnit.MINUTES.toMillis(1);
+
+    @Inject
+    private HotCities hotCities;
+
+    @Inject
+    private OpenWeatherMapRepository repository;
+
+    @Inject
+    private OpenWeatherMapConfiguration configuration;
+
+    @Inject
+    private OpenWeatherMapBatcher batcher;
+
+    @Inject
+    private CityRegistry cityRegistry;
+
+    @Inject
+    @ConfigProperty(name = "weather.hot.refresh-budget", defaultValue = "60")
+    private int budgetPerMinute;
+
+    @Inject
+    @ConfigProperty(name = "weather.hot.refresh-ahead", defaultValue = "0.75")
+    private double refreshAhead;
+
+    @Inject
+    @Metric(name = "weatherHotRefreshes", absolute = true)
+    private Counter refreshes;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduledExecutorService;
+
+    private ScheduledFuture<?> refreshTask;
+    private ScheduledFuture<?> decayTask;
+
+    private HazelcastInstance hazelcastInstance;
+    private long ticks;
+
+    void startup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        try {
+            hazelcastInstance = (HazelcastInstance) new InitialContext().lookup(WeatherEventBus.HAZELCAST_JNDI_NAME);
+        } catch (NamingException e) {
+            LOGGER.log(Level.FINE, "No Hazelcast instance found, the refresh budget is not shared.", e);
+        }
+
+        decayTask = scheduledExecutorService.scheduleAtFixedRate(hotCities::decay,
+                DECAY_INTERVAL_MILLIS, DECAY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (budgetPerMinute > MAX_BUDGET_PER_MINUTE) {
+            LOGGER.log(Level.WARNING, "Refresh budget {0} exceeds one call per millisecond, using {1}.",
+                    new Object[]{budgetPerMinute, MAX_BUDGET_PER_MINUTE});
+            budgetPerMinute = MAX_BUDGET_PER_MINUTE;
+        }
+        if (budgetPerMinute > 0) {
+            long interval = TimeUnit.MINUTES.toMillis(1) / budgetPerMinute;
+            refreshTask = scheduledExecutorService.scheduleAtFixedRate(this::refreshNext,
+                    interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+        if (decayTask != null) {
+            decayTask.cancel(false);
+        }
+    }
+
+    public int getBudgetPerMinute() {
+        return budgetPerMinute;
+    }
+
+    public long getRefreshes() {
+        return refreshes.getCount();
+    }
+
+    private void refreshNext() {
+        try {
+            if (ticks++ % memberCount() != 0) {
+                return;
+            }
+
+            Duration threshold = Duration.ofMillis((long) (configuration.getSoftTtl().toMillis() * refreshAhead));
+            int groupSize = configuration.getBatchWindow().toMillis() > 0 ? batcher.getBatchSize() : 1;
+            List<String> group = new ArrayList<>(groupSize);
+            String single = null;
+            for (Map.Entry<String, Integer> hot : hotCities.getTop()) {
+                String city = hot.getKey();
+                Optional<CachedWeather> cached = repository.peekEntry(city);
+                if (cached.isPresent() && !cached.get().isOlderThan(threshold)) {
+                    continue;
+                }
+                if (cityRegistry.openWeatherMapIdOf(city) == 0L) {
+                    single = single != null ? single : city;
+                } else if (group.size() < groupSize) {
+                    group.add(city);
+                } else {
+                    break;
+                }
+            }
+
+            // one upstream call per tick, the batcher fetches the group with one call
+            List<String> due = group.isEmpty() && single != null ? Collections.singletonList(single) : group;
+            due.forEach(repository::refresh);
+            refreshes.inc(due.size());
+        } catch (RuntimeException e) {
+            // keep the schedule alive
+            LOGGER.log(Level.WARNING, "Could not refresh hot cities.", e);
+        }
+    }
+
+    private int memberCount() {
+        return hazelcastInstance != null ? Math.max(1, hazelcastInstance.getCluster().getMembers().size()) : 1;
+    }
+}
@@ -0,0 +1,87 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the last emitted weather per city. Events are only emitted if the weather of
+ * the city changed, or if the optional heartbeat interval elapsed since the last emission.
+ * <p>
+ * The index is per member, but it also remembers the events emitted by other members, as delivered
+ * by the {@link WeatherEventBus}. So a member does not emit an unchanged weather again after another
+ * member emitted it.
+ */
+@ApplicationScoped
+public class LastEmittedWeather {
+
+    @Inject
+    @ConfigProperty(name = "weather.events.heartbeat", defaultValue = "0")
+    private long heartbeatSeconds;
+
+    @Inject
+    @Metric(name = "weatherEventsEmitted", absolute = true)
+    private Counter emitted;
+
+    @Inject
+    @Metric(name = "weatherEventsSuppressed", absolute = true)
+    private Counter suppressed;
+
+    private final ConcurrentMap<String, Emission> lastEmissions = new ConcurrentHashMap<>();
+
+    /**
+     * Check if the event should be emitted, and remember it as last emitted if so.
+     *
+     * @param currentWeather the event
+     * @return true if the event should be emitted
+     */
+    public boolean shouldEmit(CurrentWeather currentWeather) {
+        // the weather values are a small set of words, interning keeps one instance of each
+        String weather = currentWeather.getWeather().intern();
+        long now = currentWeather.getObservedAt();
+        long heartbeat = TimeUnit.SECONDS.toMillis(heartbeatSeconds);
+
+        boolean[] emit = new boolean[1];
+        lastEmissions.compute(currentWeather.getCity(), (city, previous) -> {
+            boolean changed = previous == null || !previous.weather.equals(weather);
+            boolean heartbeatDue = heartbeat > 0 && previous != null && now - previous.emittedAt >= heartbeat;
+            emit[0] = changed || heartbeatDue;
+            return emit[0] ? new Emission(weather, now) : previous;
+        });
+
+        if (emit[0]) {
+            emitted.inc();
+        } else {
+            suppressed.inc();
+        }
+        return emit[0];
+    }
+
+    /**
+     * Remember an event emitted by any cluster member, unless a newer emission is known.
+     *
+     * @param currentWeather the delivered event
+     */
+    public void delivered(CurrentWeather currentWeather) {
+        String weather = currentWeather.getWeather().intern();
+        long emittedAt = currentWeather.getObservedAt();
+        lastEmissions.merge(currentWeather.getCity(), new Emission(weather, emittedAt),
+                (previous, delivered) -> previous.emittedAt > delivered.emittedAt ? previous : delivered);
+    }
+
+    private static class Emission {
+        private final String weather;
+        private final long emittedAt;
+
+        private Emission(String weather, long emittedAt) {
+            this.weather = weather;
+            this.emittedAt = emittedAt;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index of the last known weather per city, filled from the current_weather table on
+ * startup and from every fetched weather. Used as fallback when the upstream API fails.
+ */
+@ApplicationScoped
+public class LastKnownWeather {
+
+    @Inject
+    @ConfigProperty(name = "weather.fallback.size", defaultValue = "10000")
+    private int maxSize;
+
+    @Inject
+    @Metric(name = "weatherLastKnownFallbacks", absolute = true)
+    private Counter fallbacks;
+
+    private final ConcurrentMap<String, CurrentWeather> lastKnown = new ConcurrentHashMap<>();
+
+    /**
+     * Remember the weather if it is newer than the known one. New cities are ignored once the index is full.
+     *
+     * @param currentWeather the weather
+     */
+    public void update(CurrentWeather currentWeather) {
+        if (lastKnown.size() >= maxSize && !lastKnown.containsKey(currentWeather.getCity())) {
+            return;
+        }
+        lastKnown.merge(currentWeather.getCity(), currentWeather,
+                (previous, next) -> next.isNewerThan(previous) ? next : previous);
+    }
+
+    /**
+     * Get the last known weather of the city, counted as fallback.
+     *
+     * @param city the city
+     * @return the weather, or empty if not known
+     */
+    public Optional<String> fallback(String city) {
+        CurrentWeather known = lastKnown.get(city);
+        if (known == null) {
+            return Optional.empty();
+        }
+        fallbacks.inc();
+        return Optional.of(known.getWeather());
+    }
+}
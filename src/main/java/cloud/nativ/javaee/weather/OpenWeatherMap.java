@@ -1,21 +1,49 @@
 package cloud.nativ.javaee.weather;
 
+import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
-import javax.json.JsonObject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import java.util.concurrent.CompletionStage;
 
 /**
- * The OpenWeatherMap API client interface.
+ * The OpenWeatherMap API client interface. Responses are parsed by streaming readers,
+ * which only extract the fields we need instead of materializing the full JSON document.
  */
 @RegisterRestClient
-@Path("/data/2.5/weather")
+@RegisterProvider(WeatherObservationReader.class)
+@RegisterProvider(WeatherObservationGroupReader.class)
+@Path("/data/2.5")
 public interface OpenWeatherMap {
     @GET
+    @Path("/weather")
     @Consumes(MediaType.APPLICATION_JSON)
-    JsonObject getWeather(@QueryParam("q") String city, @QueryParam("APPID") String appid);
+    WeatherObservation getWeather(@QueryParam("q") String city, @QueryParam("APPID") String appid);
+
+    @GET
+    @Path("/weather")
+    @Consumes(MediaType.APPLICATION_JSON)
+    CompletionStage<WeatherObservation> getWeatherAsync(@QueryParam("q") String city, @QueryParam("APPID") String appid);
+
+    /**
+     * Get the current weather for several cities with one call. The response
+     * contains one observation per city ID.
+     *
+     * @param ids   comma separated list of city IDs, at most 20
+     * @param appid the API key
+     * @return the group response
+     */
+    @GET
+    @Path("/group")
+    @Consumes(MediaType.APPLICATION_JSON)
+    WeatherObservationGroup getWeatherGroup(@QueryParam("id") String ids, @QueryParam("APPID") String appid);
+
+    @GET
+    @Path("/group")
+    @Consumes(MediaType.APPLICATION_JSON)
+    CompletionStage<WeatherObservationGroup> getWeatherGroupAsync(@QueryParam("id") String ids, @QueryParam("APPID") String appid);
 }
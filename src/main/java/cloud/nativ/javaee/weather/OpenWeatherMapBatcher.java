@@ -0,0 +1,195 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+import org.eclipse.microprofile.rest.client.RestClientBuilder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Micro-batching in front of the {@link OpenWeatherMap} client. Requests for cities with a known
+ * OpenWeatherMap city ID are collected for a short window and resolved with one group call.
+ * Cities with unknown ID are fetched individually, their ID is learned from the response by the {@link CityRegistry}.
+ * <p>
+ * The batch size is clamped to the upstream limit of {@value #MAX_GROUP_SIZE} city IDs per group call, and
+ * requests beyond {@code weather.batch.max-pending} waiting requests are rejected instead of queued.
+ */
+@Log
+@ApplicationScoped
+public class OpenWeatherMapBatcher {
+
+    static final int MAX_GROUP_SIZE = 20;
+
+    @Inject
+    private OpenWeatherMapConfiguration configuration;
+
+    @Inject
+    private CityRegistry cityRegistry;
+
+    @Inject
+    @Metric(name = "weatherBatchCalls", absolute = true)
+    private Counter batchCalls;
+
+    @Inject
+    @Metric(name = "weatherSingleCalls", absolute = true)
+    private Counter singleCalls;
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduledExecutorService;
+
+    private OpenWeatherMap openWeatherMap;
+
+    private final List<PendingRequest> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private int batchSize;
+    private int maxPending;
+
+    @PostConstruct
+    void initialize() {
+        batchSize = Math.max(1, configuration.getBatchSize());
+        if (batchSize > MAX_GROUP_SIZE) {
+            LOGGER.log(Level.WARNING, "Batch size {0} exceeds the group call limit, using {1}.",
+                    new Object[]{batchSize, MAX_GROUP_SIZE});
+            batchSize = MAX_GROUP_SIZE;
+        }
+        maxPending = Math.max(1, configuration.getBatchMaxPending());
+
+        try {
+            openWeatherMap = RestClientBuilder.newBuilder()
+                    .baseUri(new URI(configuration.getWeatherUri()))
+                    .executorService(executorService)
+                    .build(OpenWeatherMap.class);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * The number of cities fetched with one group call, at most {@value #MAX_GROUP_SIZE}.
+     *
+     * @return the batch size
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Fetch the upstream weather response for the given city.
+     *
+     * @param city the city
+     * @return the future weather response
+     */
+    public CompletableFuture<WeatherObservation> fetch(String city) {
+        long cityId = cityRegistry.openWeatherMapIdOf(city);
+        long window = configuration.getBatchWindow().toMillis();
+        if (cityId == 0L || window <= 0) {
+            return fetchSingle(city);
+        }
+
+        PendingRequest request = new PendingRequest(cityId);
+        synchronized (pending) {
+            if (pending.size() >= maxPending) {
+                request.response.completeExceptionally(
+                        new RejectedExecutionException(pending.size() + " weather requests are already pending."));
+                return request.response;
+            }
+            pending.add(request);
+            if (pending.size() >= batchSize) {
+                executorService.execute(this::flush);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduledExecutorService.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+            }
+        }
+        return request.response;
+    }
+
+    private CompletableFuture<WeatherObservation> fetchSingle(String city) {
+        singleCalls.inc();
+        return openWeatherMap.getWeatherAsync(city, configuration.getWeatherAppId()).toCompletableFuture()
+                .thenApply(response -> {
+                    // registers the city, it exists upstream
+                    cityRegistry.register(city, response.getCityId());
+                    return response;
+                });
+    }
+
+    private void flush() {
+        List<PendingRequest> batch;
+        synchronized (pending) {
+            flushScheduled = false;
+            int size = Math.min(pending.size(), batchSize);
+            batch = new ArrayList<>(pending.subList(0, size));
+            pending.subList(0, size).clear();
+            if (!pending.isEmpty()) {
+                executorService.execute(this::flush);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        String ids = batch.stream().map(r -> r.cityId).distinct().map(String::valueOf).collect(Collectors.joining(","));
+        batchCalls.inc();
+        openWeatherMap.getWeatherGroupAsync(ids, configuration.getWeatherAppId()).whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                LOGGER.log(Level.WARNING, "Could not fetch weather group " + ids, throwable);
+                batch.forEach(request -> request.response.completeExceptionally(throwable));
+            } else {
+                complete(batch, response);
+            }
+        });
+    }
+
+    private void complete(List<PendingRequest> batch, WeatherObservationGroup response) {
+        LOGGER.log(Level.FINE, "Received group response {0}", response);
+        try {
+            Map<Long, WeatherObservation> weatherById = new HashMap<>();
+            for (WeatherObservation weather : response.getObservations()) {
+                weatherById.put(weather.getCityId(), weather);
+            }
+
+            for (PendingRequest request : batch) {
+                WeatherObservation weather = weatherById.get(request.cityId);
+                if (weather != null) {
+                    request.response.complete(weather);
+                } else {
+                    request.response.completeExceptionally(
+                            new IllegalStateException("No weather in group response for city ID " + request.cityId));
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Invalid weather group response " + response, e);
+            batch.forEach(request -> request.response.completeExceptionally(e));
+        }
+    }
+
+    private static class PendingRequest {
+        private final long cityId;
+        private final CompletableFuture<WeatherObservation> response = new CompletableFuture<>();
+
+        private PendingRequest(long cityId) {
+            this.cityId = cityId;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.eclipse.microprofile.config.inject.ConfigProperty;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.time.Duration;
 
 /**
  * The OpenWeatherMap API configuration.
@@ -20,6 +21,30 @@ public class OpenWeatherMapConfiguration {
     @ConfigProperty(name = "weather.uri", defaultValue = "https://api.openweathermap.org")
     private Provider<String> weatherUri;
 
+    @Inject
+    @ConfigProperty(name = "weather.cache.soft-ttl", defaultValue = "30")
+    private Provider<Long> softTtlSeconds;
+
+    @Inject
+    @ConfigProperty(name = "weather.cache.hard-ttl", defaultValue = "300")
+    private Provider<Long> hardTtlSeconds;
+
+    @Inject
+    @ConfigProperty(name = "weather.batch.window", defaultValue = "50")
+    private Provider<Long> batchWindowMillis;
+
+    @Inject
+    @ConfigProperty(name = "weather.batch.size", defaultValue = "20")
+    private Provider<Integer> batchSize;
+
+    @Inject
+    @ConfigProperty(name = "weather.batch.max-pending", defaultValue = "1000")
+    private Provider<Integer> batchMaxPending;
+
+    @Inject
+    @ConfigProperty(name = "weather.bulk.concurrency", defaultValue = "8")
+    private Provider<Integer> bulkConcurrency;
+
     public String getWeatherAppId() {
         return weatherAppId.get();
     }
@@ -27,4 +52,53 @@ public class OpenWeatherMapConfiguration {
     public String getWeatherUri() {
         return weatherUri.get();
     }
+
+    /**
+     * After the soft TTL a cached weather is still served, but refreshed in the background.
+     *
+     * @return the soft TTL
+     */
+    public Duration getSoftTtl() {
+        return Duration.ofSeconds(softTtlSeconds.get());
+    }
+
+    /**
+     * After the hard TTL a cached weather is not served anymore and needs to be fetched.
+     *
+     * @return the hard TTL
+     */
+    public Duration getHardTtl() {
+        return Duration.ofSeconds(hardTtlSeconds.get());
+    }
+
+    /**
+     * Cache misses are collected for this window and fetched with one group call. Zero disables batching.
+     *
+     * @return the batch window
+     */
+    public Duration getBatchWindow() {
+        return Duration.ofMillis(batchWindowMillis.get());
+    }
+
+    public int getBatchSize() {
+        return batchSize.get();
+    }
+
+    /**
+     * The maximum number of cache misses waiting for a group call, further misses are rejected.
+     *
+     * @return the maximum number of pending requests
+     */
+    public int getBatchMaxPending() {
+        return batchMaxPending.get();
+    }
+
+    /**
+     * The maximum number of cache misses fetched in parallel for one bulk request.
+     *
+     * @return the bulk concurrency
+     */
+    public int getBulkConcurrency() {
+        return bulkConcurrency.get();
+    }
 }
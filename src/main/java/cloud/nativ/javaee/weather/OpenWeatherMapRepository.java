@@ -1,27 +1,36 @@
 package cloud.nativ.javaee.weather;
 
 import lombok.extern.java.Log;
+import org.eclipse.microprofile.faulttolerance.Asynchronous;
 import org.eclipse.microprofile.faulttolerance.Fallback;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
-import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
 
 import javax.annotation.PostConstruct;
-import javax.cache.annotation.CacheResult;
+import javax.cache.Cache;
+import javax.cache.CacheException;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
 import javax.inject.Inject;
-import javax.json.Json;
-import javax.json.JsonObject;
-import javax.json.JsonPointer;
-import javax.json.JsonString;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
- * Simple REST repository implementation.
+ * Simple REST repository implementation. Results are cached in the weatherCache, with a {@link WeatherNearCache}
+ * in front of it. Entries older than the soft TTL are served stale while being refreshed in the background.
+ * Cities are normalized by the {@link CityRegistry}, so all keys, events and stored rows use the canonical city.
  */
 @Log
 @ApplicationScoped
@@ -31,38 +40,242 @@ public class OpenWeatherMapRepository {
     private OpenWeatherMapConfiguration configuration;
 
     @Inject
-    private Event<CurrentWeather> weatherEvent;
+    private OpenWeatherMapBatcher batcher;
 
-    private OpenWeatherMap openWeatherMap;
+    @Inject
+    private WeatherEventBus eventBus;
+
+    @Inject
+    private LastEmittedWeather lastEmittedWeather;
+
+    @Inject
+    private WeatherNearCache nearCache;
+
+    @Inject
+    private LastKnownWeather lastKnownWeather;
+
+    @Inject
+    private HotCities hotCities;
+
+    @Inject
+    private CityRegistry cityRegistry;
+
+    @Inject
+    @Metric(name = "weatherClusterCacheHits", absolute = true)
+    private Counter clusterHits;
+
+    @Inject
+    @Metric(name = "weatherClusterCacheMisses", absolute = true)
+    private Counter clusterMisses;
+
+    @Inject
+    @Metric(name = "weatherCoalescedCalls", absolute = true)
+    private Counter coalescedCalls;
+
+    @Inject
+    @Metric(name = "weatherStaleHits", absolute = true)
+    private Counter staleHits;
+
+    private SingleFlight<String, String> singleFlight;
+    private Cache<String, CachedWeather> weatherCache;
 
     @PostConstruct
     void initialize() {
-        try {
-            openWeatherMap = RestClientBuilder.newBuilder()
-                    .baseUri(new URI(configuration.getWeatherUri()))
-                    .build(OpenWeatherMap.class);
-        } catch (URISyntaxException e) {
-            throw new IllegalArgumentException(e);
+        singleFlight = new SingleFlight<>(coalescedCalls::inc);
+
+        CacheManager cacheManager = Caching.getCachingProvider().getCacheManager();
+        weatherCache = cacheManager.getCache("weatherCache");
+        if (weatherCache == null) {
+            // entries expire after the configured hard TTL
+            MutableConfiguration<String, CachedWeather> cacheConfiguration = new MutableConfiguration<String, CachedWeather>()
+                    .setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(
+                            TimeUnit.SECONDS, configuration.getHardTtl().getSeconds())));
+            try {
+                weatherCache = cacheManager.createCache("weatherCache", cacheConfiguration);
+            } catch (CacheException e) {
+                // another member created it in the meantime
+                weatherCache = cacheManager.getCache("weatherCache");
+            }
         }
     }
 
     @Timeout(value = 5L, unit = ChronoUnit.SECONDS)
     @Retry(delay = 500L, maxRetries = 1)
     @Fallback(fallbackMethod = "defaultWeather")
-    @CacheResult(cacheName = "weatherCache")
     public String getWeather(String city) {
-        JsonObject response = openWeatherMap.getWeather(city, configuration.getWeatherAppId());
-        LOGGER.log(Level.INFO, "Received {0}", response);
+        try {
+            return lookup(cityRegistry.canonical(city)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for weather of " + city, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #getWeather(String)}, with the same timeout, retry, fallback and cache semantics.
+     *
+     * @param city the city
+     * @return the future weather
+     */
+    @Asynchronous
+    @Timeout(value = 5L, unit = ChronoUnit.SECONDS)
+    @Retry(delay = 500L, maxRetries = 1)
+    @Fallback(fallbackMethod = "defaultWeatherAsync")
+    public CompletionStage<String> getWeatherAsync(String city) {
+        return lookup(cityRegistry.canonical(city));
+    }
 
-        JsonPointer pointer = Json.createPointer("/weather/0/main");
-        String weather = ((JsonString) pointer.getValue(response)).getString();
+    /**
+     * Get the weather from the cache only, stale entries are refreshed in the background.
+     *
+     * @param city the city
+     * @return the cached weather, or empty on a cache miss
+     */
+    public Optional<String> getCachedWeather(String city) {
+        return getCachedEntry(city).map(CachedWeather::getWeather);
+    }
+
+    /**
+     * Get the cache entry only, stale entries are refreshed in the background.
+     *
+     * @param city the city
+     * @return the cache entry, or empty on a cache miss
+     */
+    public Optional<CachedWeather> getCachedEntry(String city) {
+        String key = cityRegistry.canonical(city);
+        hotCities.record(key);
+        return cachedEntry(key);
+    }
+
+    /**
+     * Count a request for the city in the {@link HotCities}. Not part of {@link #getWeather(String)},
+     * so retries of the fault tolerant call are not counted as further requests.
+     *
+     * @param city the city
+     */
+    public void recordRequest(String city) {
+        hotCities.record(cityRegistry.canonical(city));
+    }
 
-        weatherEvent.fireAsync(new CurrentWeather(city, weather));
+    /**
+     * Same as {@link #getCachedEntry(String)}, without counting a request for the city.
+     *
+     * @param city the canonical city key, see {@link CityRegistry}
+     * @return the cache entry, or empty on a cache miss
+     */
+    Optional<CachedWeather> cachedEntry(String city) {
+        CachedWeather cached = nearCache.get(city);
+        if (cached != null && cached.isOlderThan(configuration.getHardTtl())) {
+            // another member may have refreshed the cluster entry since
+            nearCache.remove(cached);
+            cached = null;
+        }
+        if (cached == null) {
+            cached = weatherCache.get(city);
+            if (cached != null) {
+                clusterHits.inc();
+                nearCache.put(cached);
+            } else {
+                clusterMisses.inc();
+            }
+        }
+        if (cached == null || cached.isOlderThan(configuration.getHardTtl())) {
+            return Optional.empty();
+        }
+        if (cached.isOlderThan(configuration.getSoftTtl())) {
+            staleHits.inc();
+            refresh(city);
+        }
+        return Optional.of(cached);
+    }
+
+    /**
+     * Get the cache entry for background refreshes, without counting cache hits and without refreshing it.
+     *
+     * @param city the canonical city key, see {@link CityRegistry}
+     * @return the cache entry, or empty on a cache miss
+     */
+    Optional<CachedWeather> peekEntry(String city) {
+        CachedWeather cached = nearCache.peek(city);
+        if (cached == null || cached.isOlderThan(configuration.getSoftTtl())) {
+            // another member may have refreshed the cluster entry since
+            cached = weatherCache.get(city);
+        }
+        return Optional.ofNullable(cached).filter(entry -> !entry.isOlderThan(configuration.getHardTtl()));
+    }
+
+    private CompletableFuture<String> lookup(String city) {
+        Optional<String> cached = cachedEntry(city).map(CachedWeather::getWeather);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.get());
+        }
 
-        return weather;
+        // callers only get a dependent stage, so cancelling it never affects the shared call
+        return singleFlight.execute(city, () -> loadWeather(city)).thenApply(weather -> weather);
+    }
+
+    void refresh(String city) {
+        singleFlight.execute(city, () -> loadWeather(city))
+                .exceptionally(throwable -> {
+                    LOGGER.log(Level.WARNING, "Could not refresh stale weather for " + city, throwable);
+                    return null;
+                });
+    }
+
+    private CompletableFuture<String> loadWeather(String city) {
+        return batcher.fetch(city).thenApply(response -> {
+            long fetchedAt = System.currentTimeMillis();
+            String weather = extractWeather(response);
+            CachedWeather previous = weatherCache.get(city);
+            CachedWeather cached = previous != null
+                    ? previous.refreshed(weather, fetchedAt) : new CachedWeather(city, weather, fetchedAt);
+            weatherCache.put(city, cached);
+            nearCache.update(cached);
+            CurrentWeather currentWeather = new CurrentWeather(city, weather, fetchedAt);
+            lastKnownWeather.update(currentWeather);
+            if (lastEmittedWeather.shouldEmit(currentWeather)) {
+                eventBus.publish(currentWeather);
+            }
+            return weather;
+        });
+    }
+
+    private String extractWeather(WeatherObservation response) {
+        LOGGER.log(Level.FINE, "Received {0}", response);
+        if (response.getWeather() == null) {
+            throw new IllegalStateException("No weather in response " + response);
+        }
+        return response.getWeather();
+    }
+
+    /**
+     * Add stored weather to the last known index, and to the cache if it is still within the hard TTL.
+     *
+     * @param stored the stored weather
+     */
+    void warm(CurrentWeather stored) {
+        lastKnownWeather.update(stored);
+        CachedWeather cached = new CachedWeather(stored.getCity(), stored.getWeather(), stored.getObservedAt());
+        if (!cached.isOlderThan(configuration.getHardTtl())) {
+            weatherCache.putIfAbsent(stored.getCity(), cached);
+        }
     }
 
     public String defaultWeather(String city) {
-        return "Unknown";
+        return lastKnownWeather.fallback(cityRegistry.canonical(city)).orElse("Unknown");
+    }
+
+    public CompletionStage<String> defaultWeatherAsync(String city) {
+        return CompletableFuture.completedFuture(defaultWeather(city));
+    }
+
+    @Gauge(name = "weatherInFlightCalls", unit = "none", absolute = true)
+    public int inFlightCalls() {
+        return singleFlight.inFlight();
     }
 }
@@ -0,0 +1,59 @@
+package cloud.nativ.javaee.weather;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent calls for the same key. The first caller for a key executes
+ * the loader, all other callers arriving while this call is in flight share its result.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final Runnable onCoalesced;
+
+    SingleFlight(Runnable onCoalesced) {
+        this.onCoalesced = onCoalesced;
+    }
+
+    /**
+     * Execute the loader for the given key, or join the call already in flight.
+     *
+     * @param key    the key
+     * @param loader the loader, only invoked if no call is in flight for the key
+     * @return the shared future result
+     */
+    CompletableFuture<V> execute(K key, Supplier<? extends CompletionStage<V>> loader) {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, call);
+        if (inFlight != null) {
+            onCoalesced.run();
+            return inFlight;
+        }
+
+        try {
+            loader.get().whenComplete((value, throwable) -> {
+                calls.remove(key, call);
+                if (throwable != null) {
+                    call.completeExceptionally(throwable);
+                } else {
+                    call.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            calls.remove(key, call);
+            call.completeExceptionally(e);
+        }
+        return call;
+    }
+
+    int inFlight() {
+        return calls.size();
+    }
+}
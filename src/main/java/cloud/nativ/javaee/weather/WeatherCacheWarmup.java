@@ -0,0 +1,84 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Loads the stored {@link CurrentWeather} rows in pages into the weatherCache, the {@link LastKnownWeather}
+ * index and the {@link WeatherSnapshot} on startup, so the first requests after a cold start do not all go to OpenWeatherMap.
+ * Until finished, the {@link WeatherCacheWarmupCheck} reports DOWN.
+ */
+@Log
+@ApplicationScoped
+public class WeatherCacheWarmup {
+
+    @Inject
+    private CurrentWeatherStorage storage;
+
+    @Inject
+    private OpenWeatherMapRepository repository;
+
+    @Inject
+    private WeatherSnapshot snapshot;
+
+    @Inject
+    @ConfigProperty(name = "weather.cache.warmup", defaultValue = "true")
+    private boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "weather.cache.warmup.page-size", defaultValue = "500")
+    private int pageSize;
+
+    @Resource
+    private ManagedExecutorService executorService;
+
+    private volatile boolean warm;
+    private volatile int loaded;
+
+    void startup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        if (enabled) {
+            executorService.execute(this::load);
+        } else {
+            warm = true;
+        }
+    }
+
+    private void load() {
+        String lastCity = null;
+        try {
+            List<CurrentWeather> page;
+            do {
+                page = storage.findPage(lastCity, pageSize);
+                page.forEach(repository::warm);
+                page.forEach(snapshot::update);
+                loaded += page.size();
+                if (!page.isEmpty()) {
+                    lastCity = page.get(page.size() - 1).getCity();
+                }
+            } while (page.size() == pageSize);
+            LOGGER.log(Level.INFO, "Warmed weather cache with {0} stored cities.", loaded);
+        } catch (RuntimeException e) {
+            // a cold cache is still functional, so do not keep the service down
+            LOGGER.log(Level.WARNING, "Could not warm weather cache after " + loaded + " cities.", e);
+        } finally {
+            warm = true;
+        }
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public int getLoaded() {
+        return loaded;
+    }
+}
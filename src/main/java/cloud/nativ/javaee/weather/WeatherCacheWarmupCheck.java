@@ -0,0 +1,28 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.health.Health;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Health check reporting DOWN until the weather cache warm-up finished.
+ */
+@ApplicationScoped
+@Health
+public class WeatherCacheWarmupCheck implements HealthCheck {
+
+    @Inject
+    private WeatherCacheWarmup warmup;
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.builder()
+                .name("Weather cache warm-up")
+                .withData("loaded", warmup.getLoaded())
+                .state(warmup.isWarm())
+                .build();
+    }
+}
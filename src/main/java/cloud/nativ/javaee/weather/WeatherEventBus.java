@@ -0,0 +1,106 @@
+package cloud.nativ.javaee.weather;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Member;
+import lombok.extern.java.Log;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.logging.Level;
+
+/**
+ * Cluster-wide distribution of {@link CurrentWeather} events via a topic on the Hazelcast instance
+ * of Payara. Every member submits the received events to its local {@link WeatherEventPipeline},
+ * so SSE clients on all members see each update. Side effects that must happen once per update, like publishing to JMS,
+ * are only performed by the member owning the city key, see {@link #isKeyOwner(String)}.
+ * <p>
+ * Without a Hazelcast instance, events are only delivered locally.
+ */
+@Log
+@ApplicationScoped
+public class WeatherEventBus {
+
+    static final String HAZELCAST_JNDI_NAME = "payara/Hazelcast";
+
+    @Inject
+    private WeatherEventPipeline pipeline;
+
+    @Inject
+    private LastEmittedWeather lastEmittedWeather;
+
+    private HazelcastInstance hazelcastInstance;
+    private ITopic<String> topic;
+    private String listenerId;
+
+    @PostConstruct
+    void initialize() {
+        try {
+            hazelcastInstance = (HazelcastInstance) new InitialContext().lookup(HAZELCAST_JNDI_NAME);
+        } catch (NamingException e) {
+            LOGGER.log(Level.WARNING, "No Hazelcast instance found, weather events are only delivered locally.", e);
+            return;
+        }
+
+        // events are sent as JSON, so members never deserialize application classes on Hazelcast threads
+        topic = hazelcastInstance.getTopic("weatherEvents");
+        listenerId = topic.addMessageListener(message ->
+                deliver(CurrentWeatherCodec.fromJson(message.getMessageObject())));
+    }
+
+    /**
+     * Eagerly create the bus on startup, so members that never fetch weather also receive events.
+     *
+     * @param init the application scope initialization event
+     */
+    void startup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        LOGGER.log(Level.FINE, "Weather event bus started, clustered: {0}", topic != null);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (topic != null) {
+            topic.removeMessageListener(listenerId);
+        }
+    }
+
+    /**
+     * Publish the event to the local observers of all cluster members.
+     *
+     * @param currentWeather the event
+     */
+    public void publish(CurrentWeather currentWeather) {
+        if (topic != null) {
+            topic.publish(CurrentWeatherCodec.toMessageJson(currentWeather));
+        } else {
+            deliver(currentWeather);
+        }
+    }
+
+    /**
+     * Check if the local member owns the given city key in the cluster.
+     * Also true if not clustered, or if the owner is not known during a partition migration.
+     *
+     * @param city the city key
+     * @return true if the local member is responsible for the city
+     */
+    public boolean isKeyOwner(String city) {
+        if (hazelcastInstance == null) {
+            return true;
+        }
+        Member owner = hazelcastInstance.getPartitionService().getPartition(city).getOwner();
+        return owner == null || owner.localMember();
+    }
+
+    private void deliver(CurrentWeather currentWeather) {
+        // events of other members suppress unchanged weather fetched here
+        lastEmittedWeather.delivered(currentWeather);
+        pipeline.submit(currentWeather);
+    }
+}
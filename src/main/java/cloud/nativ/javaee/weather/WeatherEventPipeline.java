@@ -0,0 +1,245 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * The event pipeline between the {@link WeatherEventBus} and the consumers of {@link CurrentWeather}
+ * events. Each consumer has its own stage with a bounded queue and dedicated worker threads. A queue
+ * only keeps the latest pending event per city, when full the oldest pending event is dropped.
+ * <p>
+ * The consumers run synchronously on the stage workers, so a slow consumer backs up its own stage
+ * only. The JMS stage takes up to {@code weather.events.batch-size} pending events at once and sends
+ * them as one batch, the SSE stage broadcasts one event at a time.
+ */
+@Log
+@ApplicationScoped
+public class WeatherEventPipeline {
+
+    @Inject
+    private CurrentWeatherTopic currentWeatherTopic;
+
+    @Inject
+    private WeatherStationResource weatherStation;
+
+    @Inject
+    private WeatherSnapshot snapshot;
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "weather.pipeline.capacity", defaultValue = "1000")
+    private int capacity;
+
+    @Inject
+    @ConfigProperty(name = "weather.pipeline.jms.workers", defaultValue = "1")
+    private int jmsWorkers;
+
+    @Inject
+    @ConfigProperty(name = "weather.pipeline.sse.workers", defaultValue = "2")
+    private int sseWorkers;
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    @PostConstruct
+    void initialize() {
+        stages.add(newStage("jms", currentWeatherTopic.getBatchSize(), currentWeatherTopic::publish, jmsWorkers));
+        stages.add(newStage("sse", 1, batch -> batch.forEach(weatherStation::broadcast), sseWorkers));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        stages.forEach(Stage::stop);
+    }
+
+    /**
+     * Apply the event to the {@link WeatherSnapshot}, and submit it to the stages of all consumers.
+     *
+     * @param currentWeather the event
+     */
+    public void submit(CurrentWeather currentWeather) {
+        // the snapshot update is cheap, it is applied right away
+        snapshot.update(currentWeather);
+        stages.forEach(stage -> stage.offer(currentWeather));
+    }
+
+    private Stage newStage(String name, int maxBatchSize, Consumer<List<CurrentWeather>> consumer, int workers) {
+        Stage stage = new Stage(name, capacity, maxBatchSize, consumer,
+                metricRegistry.counter(MetricRegistry.name("weatherPipeline", name, "dropped")),
+                metricRegistry.counter(MetricRegistry.name("weatherPipeline", name, "coalesced")));
+        metricRegistry.register(MetricRegistry.name("weatherPipeline", name, "queued"), (Gauge<Integer>) stage::queued);
+        metricRegistry.register(MetricRegistry.name("weatherPipeline", name, "oldestAge"), (Gauge<Long>) stage::oldestAge);
+        // permanent loops, they must not occupy threads of the managed executor
+        for (int i = 0; i < workers; i++) {
+            threadFactory.newThread(stage::work).start();
+        }
+        return stage;
+    }
+
+    /**
+     * The queue and workers of one consumer. Each worker takes a batch of pending events of distinct
+     * cities, events of a city in flight wait, so each city is processed in order.
+     */
+    static class Stage {
+        private final String name;
+        private final int capacity;
+        private final int maxBatchSize;
+        private final Consumer<List<CurrentWeather>> consumer;
+        private final Counter dropped;
+        private final Counter coalesced;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+        private final Set<String> inFlight = new HashSet<>();
+        private volatile boolean running = true;
+
+        Stage(String name, int capacity, int maxBatchSize, Consumer<List<CurrentWeather>> consumer,
+              Counter dropped, Counter coalesced) {
+            this.name = name;
+            this.capacity = capacity;
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+            this.consumer = consumer;
+            this.dropped = dropped;
+            this.coalesced = coalesced;
+        }
+
+        void offer(CurrentWeather currentWeather) {
+            lock.lock();
+            try {
+                Pending previous = pending.get(currentWeather.getCity());
+                if (previous != null) {
+                    // keeps the queue position and age of the previous event
+                    if (currentWeather.isNewerThan(previous.currentWeather)) {
+                        previous.currentWeather = currentWeather;
+                    }
+                    coalesced.inc();
+                    return;
+                }
+                if (pending.size() >= capacity) {
+                    Iterator<Pending> oldest = pending.values().iterator();
+                    LOGGER.log(Level.WARNING, "Pipeline stage {0} full, dropping {1}.", new Object[]{name, oldest.next().currentWeather});
+                    oldest.remove();
+                    dropped.inc();
+                }
+                pending.put(currentWeather.getCity(), new Pending(currentWeather));
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void work() {
+            while (running) {
+                List<CurrentWeather> batch = take();
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                try {
+                    consumer.accept(batch);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Pipeline stage " + name + " could not process " + batch, e);
+                } finally {
+                    done(batch);
+                }
+            }
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        private List<CurrentWeather> take() {
+            List<CurrentWeather> batch = new ArrayList<>();
+            lock.lock();
+            try {
+                Iterator<Map.Entry<String, Pending>> entries = pending.entrySet().iterator();
+                while (entries.hasNext() && batch.size() < maxBatchSize) {
+                    Map.Entry<String, Pending> entry = entries.next();
+                    if (inFlight.add(entry.getKey())) {
+                        entries.remove();
+                        batch.add(entry.getValue().currentWeather);
+                    }
+                }
+                if (batch.isEmpty()) {
+                    available.await(1, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // stops this stage only, the other stages keep running
+                running = false;
+            } finally {
+                lock.unlock();
+            }
+            return batch;
+        }
+
+        private void done(List<CurrentWeather> batch) {
+            lock.lock();
+            try {
+                for (CurrentWeather currentWeather : batch) {
+                    inFlight.remove(currentWeather.getCity());
+                    if (pending.containsKey(currentWeather.getCity())) {
+                        available.signal();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int queued() {
+            lock.lock();
+            try {
+                return pending.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long oldestAge() {
+            lock.lock();
+            try {
+                Iterator<Pending> oldest = pending.values().iterator();
+                return oldest.hasNext() ? System.currentTimeMillis() - oldest.next().enqueuedAt : 0L;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Pending {
+        private final long enqueuedAt = System.currentTimeMillis();
+        private CurrentWeather currentWeather;
+
+        private Pending(CurrentWeather currentWeather) {
+            this.currentWeather = currentWeather;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import java.io.Serializable;
+
+/**
+ * Append-only history of {@link CurrentWeather} updates. The primary key on (city, observed_at) is the
+ * index for range queries and makes appends of redelivered updates idempotent.
+ * <p>
+ * For time-based partitioning, create the table with META-INF/weather-history-partitioned.sql instead.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@IdClass(WeatherHistory.Key.class)
+@Table(name = "weather_history")
+public class WeatherHistory {
+    @Id
+    @Column(name = "city", nullable = false)
+    private String city;
+
+    @Id
+    @Column(name = "observed_at", nullable = false)
+    private long observedAt;
+
+    @Column(name = "weather", nullable = false)
+    private String weather;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String city;
+        private long observedAt;
+    }
+}
@@ -0,0 +1,44 @@
+package cloud.nativ.javaee.weather;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Streams the weather history of a city in a time range as NDJSON, reading it page by page
+ * with keyset pagination, so only one page is held in memory.
+ */
+class WeatherHistoryOutput implements StreamingOutput {
+
+    private final CurrentWeatherStorage storage;
+    private final String city;
+    private final long fromObservedAt;
+    private final long toObservedAt;
+    private final int pageSize;
+
+    WeatherHistoryOutput(CurrentWeatherStorage storage, String city, long fromObservedAt, long toObservedAt, int pageSize) {
+        this.storage = storage;
+        this.city = city;
+        this.fromObservedAt = fromObservedAt;
+        this.toObservedAt = toObservedAt;
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        long after = fromObservedAt - 1;
+        List<WeatherHistory> page;
+        do {
+            page = storage.findHistory(city, after, toObservedAt, pageSize);
+            for (WeatherHistory entry : page) {
+                CurrentWeather currentWeather = new CurrentWeather(entry.getCity(), entry.getWeather(), entry.getObservedAt());
+                output.write(CurrentWeatherCodec.toMessageJson(currentWeather).getBytes(StandardCharsets.UTF_8));
+                output.write('\n');
+                after = entry.getObservedAt();
+            }
+            output.flush();
+        } while (page.size() == pageSize);
+    }
+}
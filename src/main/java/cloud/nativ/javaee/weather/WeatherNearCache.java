@@ -0,0 +1,234 @@
+package cloud.nativ.javaee.weather;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Bounded LRU near cache in front of the clustered weatherCache, so reads of hot cities are served
+ * from local memory. When a member updates an entry, it publishes the city on a Hazelcast topic and
+ * all other members drop their near cache entry. A size of 0 disables the near cache.
+ * <p>
+ * The cache is striped into up to {@value #SEGMENTS} LRU segments by city, each with its own lock and an
+ * equal share of the size, so concurrent reads of different cities rarely contend.
+ * <p>
+ * A near entry may miss one concurrent update, it is replaced at the latest by the next soft TTL refresh.
+ */
+@Log
+@ApplicationScoped
+public class WeatherNearCache {
+
+    private static final int SEGMENTS = 16;
+
+    @Inject
+    @ConfigProperty(name = "weather.cache.near.size", defaultValue = "1000")
+    private int maxSize;
+
+    @Inject
+    @Metric(name = "weatherNearCacheHits", absolute = true)
+    private Counter hits;
+
+    @Inject
+    @Metric(name = "weatherNearCacheMisses", absolute = true)
+    private Counter misses;
+
+    @Inject
+    @Metric(name = "weatherNearCacheEvictions", absolute = true)
+    private Counter evictions;
+
+    @Inject
+    @Metric(name = "weatherNearCacheInvalidations", absolute = true)
+    private Counter invalidations;
+
+    private Segment[] segments;
+
+    private ITopic<String> topic;
+    private String listenerId;
+
+    @PostConstruct
+    void initialize() {
+        int count = Math.min(SEGMENTS, Integer.highestOneBit(Math.max(1, maxSize)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxSize / count, evictions);
+        }
+
+        if (!isEnabled()) {
+            return;
+        }
+
+        HazelcastInstance hazelcastInstance;
+        try {
+            hazelcastInstance = (HazelcastInstance) new InitialContext().lookup(WeatherEventBus.HAZELCAST_JNDI_NAME);
+        } catch (NamingException e) {
+            LOGGER.log(Level.FINE, "No Hazelcast instance found, near cache is not invalidated.", e);
+            return;
+        }
+
+        topic = hazelcastInstance.getTopic("weatherCacheInvalidations");
+        listenerId = topic.addMessageListener(message -> {
+            if (!message.getPublishingMember().localMember()) {
+                invalidate(message.getMessageObject());
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (topic != null) {
+            topic.removeMessageListener(listenerId);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Get the near cache entry of the city.
+     *
+     * @param city the city
+     * @return the entry, or null if not cached locally
+     */
+    public CachedWeather get(String city) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        CachedWeather cached = peek(city);
+        if (cached != null) {
+            hits.inc();
+        } else {
+            misses.inc();
+        }
+        return cached;
+    }
+
+    /**
+     * Same as {@link #get(String)}, without counting a hit or miss.
+     *
+     * @param city the city
+     * @return the entry, or null if not cached locally
+     */
+    public CachedWeather peek(String city) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Segment segment = segmentOf(city);
+        synchronized (segment) {
+            return segment.get(city);
+        }
+    }
+
+    /**
+     * Remember an entry read from the cluster cache. Never replaces a newer entry.
+     *
+     * @param cached the entry
+     */
+    public void put(CachedWeather cached) {
+        if (!isEnabled()) {
+            return;
+        }
+        Segment segment = segmentOf(cached.getCity());
+        synchronized (segment) {
+            CachedWeather previous = segment.get(cached.getCity());
+            if (previous == null || previous.getFetchedAt() <= cached.getFetchedAt()) {
+                segment.put(cached.getCity(), cached);
+            }
+        }
+    }
+
+    /**
+     * Remember an entry updated by this member, and invalidate the entry on all other members.
+     *
+     * @param cached the updated entry
+     */
+    public void update(CachedWeather cached) {
+        put(cached);
+        if (topic != null) {
+            topic.publish(cached.getCity());
+        }
+    }
+
+    /**
+     * Drop an expired entry, unless it has been replaced in the meantime.
+     *
+     * @param expired the expired entry
+     */
+    public void remove(CachedWeather expired) {
+        if (!isEnabled()) {
+            return;
+        }
+        Segment segment = segmentOf(expired.getCity());
+        synchronized (segment) {
+            segment.remove(expired.getCity(), expired);
+        }
+    }
+
+    private void invalidate(String city) {
+        Segment segment = segmentOf(city);
+        boolean removed;
+        synchronized (segment) {
+            removed = segment.remove(city) != null;
+        }
+        if (removed) {
+            invalidations.inc();
+        }
+    }
+
+    @Gauge(name = "weatherNearCacheSize", unit = "none", absolute = true)
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentOf(String city) {
+        int hash = city.hashCode();
+        // spread the high bits, the segment count is a power of two
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * One LRU segment, guarded by its own monitor.
+     */
+    private static class Segment extends LinkedHashMap<String, CachedWeather> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final transient Counter evictions;
+
+        private Segment(int capacity, Counter evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedWeather> eldest) {
+            boolean evict = size() > capacity;
+            if (evict) {
+                evictions.inc();
+            }
+            return evict;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.Value;
+
+/**
+ * The fields of an OpenWeatherMap weather response we are interested in.
+ */
+@Value
+public class WeatherObservation {
+    /**
+     * The OpenWeatherMap city ID, 0 if unknown.
+     */
+    private long cityId;
+    /**
+     * The main weather condition, e.g. Clouds.
+     */
+    private String weather;
+}
@@ -0,0 +1,13 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * The observations of an OpenWeatherMap group response.
+ */
+@Value
+public class WeatherObservationGroup {
+    private List<WeatherObservation> observations;
+}
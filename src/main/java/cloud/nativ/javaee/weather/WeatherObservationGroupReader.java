@@ -0,0 +1,52 @@
+package cloud.nativ.javaee.weather;
+
+import javax.json.stream.JsonParser;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader for OpenWeatherMap group responses, see {@link WeatherObservationReader}.
+ */
+@Provider
+@Consumes(MediaType.APPLICATION_JSON)
+public class WeatherObservationGroupReader implements MessageBodyReader<WeatherObservationGroup> {
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return WeatherObservationGroup.class.equals(type);
+    }
+
+    @Override
+    public WeatherObservationGroup readFrom(Class<WeatherObservationGroup> type, Type genericType,
+                                            Annotation[] annotations, MediaType mediaType,
+                                            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) {
+        JsonParser parser = WeatherObservationReader.PARSER_FACTORY.createParser(entityStream);
+        if (parser.next() != JsonParser.Event.START_OBJECT) {
+            throw new IllegalArgumentException("Expected weather group JSON object.");
+        }
+
+        List<WeatherObservation> observations = new ArrayList<>();
+        while (parser.next() != JsonParser.Event.END_OBJECT) {
+            if (!"list".equals(parser.getString())) {
+                WeatherObservationReader.skipValue(parser);
+                continue;
+            }
+
+            parser.next();
+            while (parser.next() == JsonParser.Event.START_OBJECT) {
+                observations.add(WeatherObservationReader.readObservation(parser, true));
+            }
+            // the list is all we need
+            break;
+        }
+        return new WeatherObservationGroup(observations);
+    }
+}
@@ -0,0 +1,129 @@
+package cloud.nativ.javaee.weather;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Collections;
+
+/**
+ * Streaming reader for OpenWeatherMap weather responses. Only the city ID and the main weather
+ * are extracted, everything else is skipped and reading stops once both have been found.
+ */
+@Provider
+@Consumes(MediaType.APPLICATION_JSON)
+public class WeatherObservationReader implements MessageBodyReader<WeatherObservation> {
+
+    static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(Collections.emptyMap());
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return WeatherObservation.class.equals(type);
+    }
+
+    @Override
+    public WeatherObservation readFrom(Class<WeatherObservation> type, Type genericType, Annotation[] annotations,
+                                       MediaType mediaType, MultivaluedMap<String, String> httpHeaders,
+                                       InputStream entityStream) {
+        JsonParser parser = PARSER_FACTORY.createParser(entityStream);
+        if (parser.next() != JsonParser.Event.START_OBJECT) {
+            throw new IllegalArgumentException("Expected weather JSON object.");
+        }
+        // no need to close the parser, the entity stream is closed by the client
+        return readObservation(parser, false);
+    }
+
+    /**
+     * Read an observation from the current object of the parser.
+     *
+     * @param parser    the parser, positioned after the START_OBJECT
+     * @param skipToEnd if the parser should be advanced to the END_OBJECT once all fields are found
+     * @return the observation
+     */
+    static WeatherObservation readObservation(JsonParser parser, boolean skipToEnd) {
+        long cityId = 0L;
+        String weather = null;
+
+        while (parser.hasNext()) {
+            JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.END_OBJECT) {
+                return new WeatherObservation(cityId, weather);
+            }
+
+            String key = parser.getString();
+            if ("id".equals(key)) {
+                parser.next();
+                cityId = parser.getLong();
+            } else if ("weather".equals(key)) {
+                weather = readMainWeather(parser);
+            } else {
+                skipValue(parser);
+            }
+
+            if (cityId != 0L && weather != null) {
+                if (skipToEnd) {
+                    skipToEnd(parser);
+                }
+                return new WeatherObservation(cityId, weather);
+            }
+        }
+        return new WeatherObservation(cityId, weather);
+    }
+
+    private static String readMainWeather(JsonParser parser) {
+        if (parser.next() != JsonParser.Event.START_ARRAY || parser.next() != JsonParser.Event.START_OBJECT) {
+            return null;
+        }
+
+        String main = null;
+        while (parser.next() != JsonParser.Event.END_OBJECT) {
+            String key = parser.getString();
+            if ("main".equals(key)) {
+                parser.next();
+                main = parser.getString();
+            } else {
+                skipValue(parser);
+            }
+        }
+        // only the first weather condition is of interest
+        skipToEnd(parser);
+        return main;
+    }
+
+    /**
+     * Advance the parser to the end of the enclosing object or array. Unlike {@link JsonParser#skipObject()}
+     * and {@link JsonParser#skipArray()}, this also works in the middle of the structure, where the
+     * reference implementation silently does nothing.
+     *
+     * @param parser the parser, positioned inside an object or array
+     */
+    static void skipToEnd(JsonParser parser) {
+        int depth = 0;
+        while (parser.hasNext()) {
+            JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.START_OBJECT || event == JsonParser.Event.START_ARRAY) {
+                depth++;
+            } else if (event == JsonParser.Event.END_OBJECT || event == JsonParser.Event.END_ARRAY) {
+                if (depth-- == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    static void skipValue(JsonParser parser) {
+        JsonParser.Event value = parser.next();
+        if (value == JsonParser.Event.START_OBJECT) {
+            parser.skipObject();
+        } else if (value == JsonParser.Event.START_ARRAY) {
+            parser.skipArray();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package cloud.nativ.javaee.weather;
 
+import cloud.nativ.javaee.cbor.CborMessageBodyWriter;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.metrics.MetricUnits;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.eclipse.microprofile.openapi.annotations.Operation;
@@ -11,15 +13,35 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * An asynchronous REST API to query the weather.
@@ -28,9 +50,131 @@ import java.util.concurrent.TimeUnit;
 @Path("weather")
 public class WeatherResource {
 
+    /**
+     * MediaType for newline delimited JSON, one JSON object per line.
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     @Inject
     private OpenWeatherMapRepository repository;
 
+    @Inject
+    private OpenWeatherMapConfiguration configuration;
+
+    @Inject
+    private CurrentWeatherStorage storage;
+
+    @Inject
+    private HotCities hotCities;
+
+    @Inject
+    private HotCityRefresher hotCityRefresher;
+
+    @Inject
+    private CityRegistry cityRegistry;
+
+    @Inject
+    @ConfigProperty(name = "weather.history.page-size", defaultValue = "1000")
+    private int historyPageSize;
+
+    @GET
+    @Produces(APPLICATION_NDJSON)
+    @APIResponse(responseCode = "200", description = "The current weather for each city, one JSON object per line.",
+            content = @Content(mediaType = APPLICATION_NDJSON))
+    @Operation(summary = "Get the current weather for several cities.",
+            description = "Streams each result as soon as it is available, cache misses are fetched in parallel.")
+    @Timed(name = "getBulkWeather", absolute = true, unit = MetricUnits.MILLISECONDS)
+    public Response getWeather(@Parameter(name = "city", required = true, example = "Rosenheim,de",
+                                       schema = @Schema(type = SchemaType.ARRAY, implementation = String.class))
+                               @QueryParam("city") List<String> cities) {
+        if (cities.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.ok(new BulkWeatherOutput(repository, canonical(cities), configuration.getBulkConcurrency(), false)).build();
+    }
+
+    @GET
+    @Produces(CborMessageBodyWriter.APPLICATION_CBOR + "; qs=0.5")
+    @APIResponse(responseCode = "200", description = "The current weather for each city, as CBOR array.",
+            content = @Content(mediaType = CborMessageBodyWriter.APPLICATION_CBOR))
+    @Operation(summary = "Get the current weather for several cities as CBOR.",
+            description = "Binary variant of the NDJSON stream, only chosen if explicitly accepted.")
+    @Timed(name = "getBulkWeatherCbor", absolute = true, unit = MetricUnits.MILLISECONDS)
+    public Response getWeatherCbor(@QueryParam("city") List<String> cities) {
+        if (cities.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.ok(new BulkWeatherOutput(repository, canonical(cities), configuration.getBulkConcurrency(), true)).build();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @APIResponse(responseCode = "200", description = "The hot cities and the refresh budget.",
+            content = @Content(mediaType = MediaType.APPLICATION_JSON))
+    @Operation(summary = "Get the most requested cities.",
+            description = "The top-K cities by estimated recent requests, which are refreshed in the background.")
+    @Path("/hot-cities")
+    public JsonObject getHotCities() {
+        JsonArrayBuilder top = Json.createArrayBuilder();
+        hotCities.getTop().forEach(hot -> top.add(Json.createObjectBuilder()
+                .add("city", hot.getKey())
+                .add("requests", hot.getValue())));
+
+        return Json.createObjectBuilder()
+                .add("refresh-budget-per-minute", hotCityRefresher.getBudgetPerMinute())
+                .add("refreshes", hotCityRefresher.getRefreshes())
+                .add("top", top)
+                .build();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @APIResponse(responseCode = "200", description = "The display names of the matching cities.",
+            content = @Content(mediaType = MediaType.APPLICATION_JSON))
+    @Operation(summary = "Find cities by prefix.",
+            description = "Case insensitive prefix lookup of the known cities, for autocompletion.")
+    @Path("/cities")
+    public Response findCities(@QueryParam("prefix") String prefix,
+                               @QueryParam("limit") @DefaultValue("10") int limit) {
+        if (prefix == null || prefix.trim().isEmpty() || limit < 1) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        JsonArrayBuilder cities = Json.createArrayBuilder();
+        cityRegistry.findByPrefix(prefix, Math.min(limit, 100)).forEach(cities::add);
+        return Response.ok(cities.build()).build();
+    }
+
+    @GET
+    @Produces(APPLICATION_NDJSON)
+    @APIResponse(responseCode = "200", description = "The weather history of the city, one JSON object per line.",
+            content = @Content(mediaType = APPLICATION_NDJSON))
+    @Operation(summary = "Get the weather history of a city.",
+            description = "Streams the stored weather observed in the time range, ordered by observation time. "
+                    + "Defaults to the last 24 hours.")
+    @Timed(name = "getWeatherHistory", absolute = true, unit = MetricUnits.MILLISECONDS)
+    @Path("/{city}/history")
+    public Response getWeatherHistory(@PathParam("city") String city,
+                                      @Parameter(name = "from", description = "Inclusive start as ISO-8601 instant",
+                                              example = "2026-01-01T00:00:00Z")
+                                      @QueryParam("from") String from,
+                                      @Parameter(name = "to", description = "Exclusive end as ISO-8601 instant",
+                                              example = "2026-01-02T00:00:00Z")
+                                      @QueryParam("to") String to) {
+        Instant toInstant;
+        Instant fromInstant;
+        try {
+            toInstant = to == null ? Instant.now() : Instant.parse(to);
+            fromInstant = from == null ? toInstant.minus(1, ChronoUnit.DAYS) : Instant.parse(from);
+        } catch (DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (!fromInstant.isBefore(toInstant)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return Response.ok(new WeatherHistoryOutput(storage, cityRegistry.canonical(city),
+                fromInstant.toEpochMilli(), toInstant.toEpochMilli(), historyPageSize)).build();
+    }
+
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     @APIResponse(responseCode = "200", description = "The current weather for the city.",
@@ -39,13 +183,72 @@ public class WeatherResource {
             description = "Retrieves the current weather via the OpenWeatherMap API.")
     @Timed(name = "getWeather", absolute = true, unit = MetricUnits.MILLISECONDS)
     @Path("/{city}")
-    public void getWeather(@Suspended final AsyncResponse asyncResponse,
+    public void getWeather(@Suspended final AsyncResponse asyncResponse, @Context Request request,
                            @Parameter(name = "city", required = true, example = "Rosenheim,de",
                                    schema = @Schema(type = SchemaType.STRING))
                            @PathParam("city") String city) {
 
+        resume(asyncResponse, request, city, weather -> weather);
+    }
+
+    @GET
+    @Produces(CborMessageBodyWriter.APPLICATION_CBOR + "; qs=0.5")
+    @APIResponse(responseCode = "200", description = "The current weather for the city, as CBOR map.",
+            content = @Content(mediaType = CborMessageBodyWriter.APPLICATION_CBOR))
+    @Operation(summary = "Get the current weather for a city as CBOR.",
+            description = "Binary variant, only chosen if explicitly accepted.")
+    @Timed(name = "getWeatherCbor", absolute = true, unit = MetricUnits.MILLISECONDS)
+    @Path("/{city}")
+    public void getWeatherCbor(@Suspended final AsyncResponse asyncResponse, @Context Request request,
+                               @PathParam("city") String city) {
+        resume(asyncResponse, request, city, weather -> new CurrentWeather(cityRegistry.canonical(city), weather));
+    }
+
+    private List<String> canonical(List<String> cities) {
+        return cities.stream().map(cityRegistry::canonical).collect(Collectors.toList());
+    }
+
+    private void resume(AsyncResponse asyncResponse, Request request, String requestedCity,
+                        Function<String, Object> entity) {
+        String city = cityRegistry.canonical(requestedCity);
+        // cached weather is answered right away, conditional requests without fetching the entity
+        Optional<CachedWeather> cached = repository.getCachedEntry(city);
+        if (cached.isPresent()) {
+            asyncResponse.resume(cacheValidated(request, cached.get(), entity));
+            return;
+        }
+
         asyncResponse.setTimeout(5, TimeUnit.SECONDS);
         asyncResponse.setTimeoutHandler(r -> r.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build()));
-        asyncResponse.resume(Response.ok(repository.getWeather(city)).build());
+        repository.getWeatherAsync(city).whenComplete((weather, throwable) -> {
+            if (throwable != null) {
+                asyncResponse.resume(throwable);
+                return;
+            }
+            // the fallback weather is not cached, and gets no validators
+            Optional<CachedWeather> fetched = repository.cachedEntry(city)
+                    .filter(cachedWeather -> cachedWeather.getWeather().equals(weather));
+            asyncResponse.resume(fetched.map(cachedWeather -> cacheValidated(request, cachedWeather, entity))
+                    .orElseGet(() -> Response.ok(entity.apply(weather)).build()));
+        });
+    }
+
+    private Response cacheValidated(Request request, CachedWeather cached, Function<String, Object> entity) {
+        // weak, the text and CBOR representations of the same weather are equivalent
+        // both validators only change with the weather, not with every refresh of the same weather
+        EntityTag etag = new EntityTag(Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(cached.getWeather().getBytes(StandardCharsets.UTF_8)), true);
+        Date lastModified = new Date(cached.getChangedAt());
+
+        long age = System.currentTimeMillis() - cached.getFetchedAt();
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge((int) Math.max(0L, (configuration.getSoftTtl().toMillis() - age) / 1000L));
+
+        Response.ResponseBuilder builder = request.evaluatePreconditions(lastModified, etag);
+        if (builder == null) {
+            builder = Response.ok(entity.apply(cached.getWeather()));
+        }
+        return builder.tag(etag).lastModified(lastModified).cacheControl(cacheControl)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
     }
 }
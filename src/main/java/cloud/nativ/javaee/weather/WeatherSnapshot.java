@@ -0,0 +1,124 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.EntityTag;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Materialized view of the current weather of all cities, seeded by the {@link WeatherCacheWarmup}
+ * and updated incrementally by the {@link CurrentWeather} events of the {@link WeatherEventPipeline}.
+ * The serialized JSON array is only rebuilt on the first read after a change.
+ */
+@ApplicationScoped
+public class WeatherSnapshot {
+
+    @Inject
+    @Metric(name = "weatherSnapshotRebuilds", absolute = true)
+    private Counter rebuilds;
+
+    private final Map<String, CurrentWeather> view = new TreeMap<>();
+    private Serialized serialized;
+
+    /**
+     * Apply the weather to the view, unless a newer weather of the city is known.
+     *
+     * @param currentWeather the weather
+     */
+    public synchronized void update(CurrentWeather currentWeather) {
+        CurrentWeather previous = view.get(currentWeather.getCity());
+        if (previous != null && (!currentWeather.isNewerThan(previous)
+                || previous.getWeather().equals(currentWeather.getWeather()))) {
+            return;
+        }
+        view.put(currentWeather.getCity(), currentWeather);
+        serialized = null;
+    }
+
+    /**
+     * Get the weather of all cities observed at or after the given time.
+     *
+     * @param observedAt the time in epoch millis
+     * @return the weather, ordered by city
+     */
+    public synchronized List<CurrentWeather> observedSince(long observedAt) {
+        List<CurrentWeather> weather = new ArrayList<>();
+        for (CurrentWeather currentWeather : view.values()) {
+            if (currentWeather.getObservedAt() >= observedAt) {
+                weather.add(currentWeather);
+            }
+        }
+        return weather;
+    }
+
+    /**
+     * Get the serialized view, rebuilt if it changed since the last call.
+     *
+     * @return the JSON array and its ETag
+     */
+    public synchronized Serialized get() {
+        if (serialized == null) {
+            ByteArrayOutputStream json = new ByteArrayOutputStream(64 + view.size() * 48);
+            json.write('[');
+            boolean first = true;
+            for (CurrentWeather currentWeather : view.values()) {
+                if (!first) {
+                    json.write(',');
+                }
+                byte[] bytes = CurrentWeatherCodec.toEventBytes(currentWeather);
+                json.write(bytes, 0, bytes.length);
+                first = false;
+            }
+            json.write(']');
+
+            byte[] bytes = json.toByteArray();
+            serialized = new Serialized(bytes, new EntityTag(contentHash(bytes)));
+            rebuilds.inc();
+        }
+        return serialized;
+    }
+
+    /**
+     * Derive the ETag from the content, so all members and restarts agree on the tag of the same view.
+     */
+    private static String contentHash(byte[] json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            ByteBuffer hash = ByteBuffer.wrap(digest);
+            return String.format("%016x%016x", hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * An immutable serialized version of the view.
+     */
+    public static class Serialized {
+        private final byte[] json;
+        private final EntityTag etag;
+
+        private Serialized(byte[] json, EntityTag etag) {
+            this.json = json;
+            this.etag = etag;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public EntityTag getEtag() {
+            return etag;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package cloud.nativ.javaee.weather;
+
+import javax.ws.rs.sse.OutboundSseEvent;
+
+/**
+ * An outbound weather station event. The event ID is the observed-at of the weather, so all members
+ * assign the same ID to the same event. The sequence is local to this member and orders the events
+ * by their arrival, snapshot events have no sequence.
+ */
+class WeatherStationEvent {
+
+    static final long NO_SEQUENCE = -1L;
+
+    private final long sequence;
+    private final long id;
+    private final String city;
+    private final OutboundSseEvent event;
+
+    WeatherStationEvent(long sequence, long id, String city, OutboundSseEvent event) {
+        this.sequence = sequence;
+        this.id = id;
+        this.city = city;
+        this.event = event;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getCity() {
+        return city;
+    }
+
+    OutboundSseEvent getEvent() {
+        return event;
+    }
+}
@@ -0,0 +1,110 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.sse.OutboundSseEvent;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Ring buffer of the most recent weather station events, used to replay missed events
+ * to clients reconnecting with a Last-Event-ID.
+ * <p>
+ * Event IDs are the observed-at of the weather, the same on all members, so a client may reconnect to
+ * any member. If the buffer of this member does not cover the requested ID, e.g. after a restart or once
+ * the events have been overwritten, the cities observed since are replayed from the {@link WeatherSnapshot}
+ * instead. Events observed in the same millisecond as the Last-Event-ID are replayed again.
+ */
+@ApplicationScoped
+public class WeatherStationReplay {
+
+    @Inject
+    @ConfigProperty(name = "weather.station.replay-size", defaultValue = "1024")
+    private int capacity;
+
+    @Inject
+    @Metric(name = "weatherStationReplays", absolute = true)
+    private Counter replays;
+
+    @Inject
+    @Metric(name = "weatherStationSnapshots", absolute = true)
+    private Counter snapshots;
+
+    @Inject
+    private WeatherSnapshot snapshot;
+
+    private WeatherStationEvent[] ring;
+    private int head;
+    private int size;
+    private long nextSequence;
+
+    // the buffer only has the events observed after this, events observed before startup may be missing
+    private long coveredAfter = System.currentTimeMillis();
+
+    @PostConstruct
+    void initialize() {
+        ring = new WeatherStationEvent[Math.max(1, capacity)];
+    }
+
+    /**
+     * Build the event of the weather and append it to the buffer.
+     *
+     * @param currentWeather the weather
+     * @param builder        builds the outbound event, with the observed-at as ID
+     * @return the appended event
+     */
+    synchronized WeatherStationEvent append(CurrentWeather currentWeather,
+                                            Function<CurrentWeather, OutboundSseEvent> builder) {
+        WeatherStationEvent event = new WeatherStationEvent(nextSequence++, currentWeather.getObservedAt(),
+                currentWeather.getCity(), builder.apply(currentWeather));
+
+        WeatherStationEvent overwritten = ring[head];
+        if (overwritten != null) {
+            coveredAfter = Math.max(coveredAfter, overwritten.getId());
+        }
+        ring[head] = event;
+        head = (head + 1) % ring.length;
+        size = Math.min(size + 1, ring.length);
+        return event;
+    }
+
+    /**
+     * Get all events observed since the given event ID, from the buffer if it still covers the ID,
+     * else from the snapshot.
+     *
+     * @param lastEventId the last event ID received by the client, negative if unknown
+     * @param builder     builds the outbound events of a snapshot
+     * @return the events to replay, buffered events in their original order
+     */
+    List<WeatherStationEvent> since(long lastEventId, Function<CurrentWeather, OutboundSseEvent> builder) {
+        synchronized (this) {
+            if (lastEventId >= 0 && lastEventId > coveredAfter) {
+                replays.inc();
+                List<WeatherStationEvent> events = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    WeatherStationEvent event = ring[(head - size + i + ring.length) % ring.length];
+                    if (event.getId() >= lastEventId) {
+                        events.add(event);
+                    }
+                }
+                return events;
+            }
+        }
+
+        snapshots.inc();
+        List<WeatherStationEvent> events = new ArrayList<>();
+        for (CurrentWeather currentWeather : snapshot.observedSince(Math.max(0L, lastEventId))) {
+            events.add(new WeatherStationEvent(WeatherStationEvent.NO_SEQUENCE, currentWeather.getObservedAt(),
+                    currentWeather.getCity(), builder.apply(currentWeather)));
+        }
+        events.sort(Comparator.comparingLong(WeatherStationEvent::getId));
+        return events;
+    }
+}
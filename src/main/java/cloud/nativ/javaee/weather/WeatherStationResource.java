@@ -5,24 +5,27 @@ import org.eclipse.microprofile.metrics.MetricUnits;
 import org.eclipse.microprofile.metrics.annotation.Gauge;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 
-import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.ObservesAsync;
 import javax.inject.Inject;
 import javax.validation.constraints.NotBlank;
 import javax.ws.rs.*;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.sse.OutboundSseEvent;
 import javax.ws.rs.sse.Sse;
-import javax.ws.rs.sse.SseBroadcaster;
 import javax.ws.rs.sse.SseEventSink;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 /**
- * The weather station broadcasts weather events via SSE to all registered listeners.
+ * The weather station broadcasts weather events via SSE to all registered listeners,
+ * listeners may subscribe to the events of selected cities only.
  */
 @Log
 @ApplicationScoped
@@ -32,35 +35,56 @@ public class WeatherStationResource {
     @Inject
     private OpenWeatherMapRepository repository;
 
-    @Context
-    private Sse sse;
-    private SseBroadcaster sseBroadcaster;
+    @Inject
+    private WeatherStationSubscriptions subscriptions;
 
-    private AtomicLong registeredEventSinks = new AtomicLong(0);
+    @Inject
+    private WeatherStationReplay replay;
 
-    @PostConstruct
-    public void initialize() {
-        sseBroadcaster = sse.newBroadcaster();
+    @Inject
+    private WeatherSnapshot snapshot;
 
-        sseBroadcaster.onClose((eventSink) -> {
-            long count = registeredEventSinks.decrementAndGet();
-            LOGGER.log(Level.INFO, "Closing sink. Currently {0} events sinks listening.", count);
-        });
+    @Inject
+    private CityRegistry cityRegistry;
 
-        sseBroadcaster.onError((sseEventSink, throwable) -> {
-            long count = registeredEventSinks.decrementAndGet();
-            LOGGER.log(Level.WARNING, "Error on event sink. Currently {0} events sinks listening.", new Object[]{count, throwable});
-        });
-    }
+    @Context
+    private Sse sse;
 
+    /**
+     * Register an SSE event sink for the weather events of the given cities. Reconnecting
+     * clients get all events missed since their Last-Event-ID replayed first.
+     *
+     * @param sseEventSink the event sink
+     * @param cities       the cities, e.g. ?city=Munich,de&amp;city=London,uk. All cities if omitted.
+     * @param lastEventId  the last event ID received before reconnecting, if any
+     */
     @GET
     @Produces(MediaType.SERVER_SENT_EVENTS)
-    public void fetch(@Context SseEventSink sseEventSink) {
-        LOGGER.info("Registering new SSE event sink with broadcaster.");
-        sseBroadcaster.register(sseEventSink);
+    public void fetch(@Context SseEventSink sseEventSink, @QueryParam("city") List<String> cities,
+                      @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventId) {
+        LOGGER.log(Level.INFO, "Registering new SSE event sink for cities {0}.", cities);
+        List<String> canonicalCities = cities.stream().map(cityRegistry::canonical).collect(Collectors.toList());
+        subscriptions.subscribe(sseEventSink, canonicalCities, () -> lastEventId == null
+                ? Collections.emptyList() : replay.since(parseEventId(lastEventId), this::newEvent));
+    }
 
-        long count = registeredEventSinks.incrementAndGet();
-        LOGGER.log(Level.INFO, "Currently {0} events sinks listening.", count);
+    /**
+     * Get the current weather of all known cities as JSON array, served from memory.
+     *
+     * @param request the request, for If-None-Match
+     * @return the snapshot, or 304 if not modified
+     */
+    @GET
+    @Path("snapshot")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Timed(name = "getSnapshot", absolute = true, unit = MetricUnits.MILLISECONDS)
+    public Response snapshot(@Context Request request) {
+        WeatherSnapshot.Serialized serialized = snapshot.get();
+        Response.ResponseBuilder builder = request.evaluatePreconditions(serialized.getEtag());
+        if (builder == null) {
+            builder = Response.ok(serialized.getJson());
+        }
+        return builder.tag(serialized.getEtag()).cacheControl(CacheControl.valueOf("no-cache")).build();
     }
 
     @POST
@@ -69,22 +93,51 @@ public class WeatherStationResource {
     @Timed(name = "queryWeather", absolute = true, unit = MetricUnits.MILLISECONDS)
     public Response queryWeather(@FormParam("city") @NotBlank String city) {
         LOGGER.log(Level.INFO, "Received weather form POST request for city {0}", city);
+        repository.recordRequest(city);
         return Response.ok(repository.getWeather(city)).build();
     }
 
     @Gauge(unit = "none")
     public long registeredEventSinks() {
-        return registeredEventSinks.get();
+        return subscriptions.registeredEventSinks();
+    }
+
+    @Gauge(unit = "none")
+    public long queuedEvents() {
+        return subscriptions.queuedEvents();
     }
 
-    public void broadcast(@ObservesAsync CurrentWeather currentWeather) {
-        OutboundSseEvent broadcastEvent = sse.newEventBuilder()
+    /**
+     * Broadcast the event to the subscribed sinks, called by the {@link WeatherEventPipeline}.
+     *
+     * @param currentWeather the event
+     */
+    public void broadcast(CurrentWeather currentWeather) {
+        // serialize once per broadcast, not once per sink
+        WeatherStationEvent broadcastEvent = replay.append(currentWeather, this::newEvent);
+
+        LOGGER.log(Level.INFO, "Broadcasting current weather event {0}.", broadcastEvent.getEvent());
+        subscriptions.publish(broadcastEvent);
+    }
+
+    /**
+     * Build the outbound event of the weather, its observed-at is the event ID on all members.
+     */
+    private OutboundSseEvent newEvent(CurrentWeather currentWeather) {
+        return sse.newEventBuilder()
+                .id(String.valueOf(currentWeather.getObservedAt()))
                 .name("event")
-                .data(currentWeather.toJson())
+                .data(String.class, CurrentWeatherCodec.toEventJson(currentWeather))
                 .mediaType(MediaType.APPLICATION_JSON_TYPE)
                 .build();
+    }
 
-        LOGGER.log(Level.INFO, "Broadcasting current weather event {0}.", broadcastEvent);
-        sseBroadcaster.broadcast(broadcastEvent);
+    private static long parseEventId(String lastEventId) {
+        try {
+            return Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            // unknown ID, the replay falls back to a snapshot
+            return -1L;
+        }
     }
 }
@@ -0,0 +1,391 @@
+package cloud.nativ.javaee.weather;
+
+import lombok.extern.java.Log;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * The index of all SSE event sinks of the weather station. Sinks either subscribe to all cities
+ * or to a set of cities, events are only sent to the sinks subscribed to their city.
+ * <p>
+ * Each sink has one event in flight and a bounded queue of outbound events. If a slow sink
+ * overflows its queue, events are dropped according to the {@link DropPolicy}, sinks that stay
+ * over the limit are evicted.
+ * <p>
+ * JAX-RS has no close callback for sinks, so all sinks are swept periodically: closed sinks are removed,
+ * and sinks whose event in flight has not completed within the stall timeout are evicted. A stall
+ * timeout of 0 disables the eviction of stalled sinks.
+ */
+@Log
+@ApplicationScoped
+public class WeatherStationSubscriptions {
+
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * What to drop when the outbound queue of a sink is full.
+     */
+    public enum DropPolicy {
+        /**
+         * Drop the oldest queued event.
+         */
+        DROP_OLDEST,
+        /**
+         * Only keep the latest queued event per city, drop the oldest queued event if
+         * the queue is still full.
+         */
+        LATEST_PER_CITY
+    }
+
+    @Inject
+    private MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "weather.station.queue-size", defaultValue = "32")
+    private int queueSize;
+
+    @Inject
+    @ConfigProperty(name = "weather.station.drop-policy", defaultValue = "LATEST_PER_CITY")
+    private String dropPolicy;
+
+    @Inject
+    @ConfigProperty(name = "weather.station.evict-after", defaultValue = "100")
+    private int evictAfter;
+
+    @Inject
+    @ConfigProperty(name = "weather.station.stall-timeout", defaultValue = "30000")
+    private long stallTimeout;
+
+    @Inject
+    @Metric(name = "weatherStationDroppedEvents", absolute = true)
+    private Counter droppedEvents;
+
+    @Inject
+    @Metric(name = "weatherStationEvictedSinks", absolute = true)
+    private Counter evictedSinks;
+
+    @Resource
+    private ManagedScheduledExecutorService scheduledExecutorService;
+
+    private ScheduledFuture<?> sweepTask;
+
+    private final Set<Subscription> allCities = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Set<Subscription>> byCity = new ConcurrentHashMap<>();
+    private final AtomicLong registeredEventSinks = new AtomicLong(0);
+    private DropPolicy policy;
+
+    @PostConstruct
+    void initialize() {
+        try {
+            policy = DropPolicy.valueOf(dropPolicy.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid weather.station.drop-policy " + dropPolicy
+                    + ", expected one of DROP_OLDEST, LATEST_PER_CITY.", e);
+        }
+    }
+
+    /**
+     * Eagerly create the subscriptions on startup, so an invalid drop policy fails the deployment.
+     *
+     * @param init the application scope initialization event
+     */
+    void startup(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        LOGGER.log(Level.FINE, "Weather station subscriptions started, drop policy: {0}", policy);
+        sweepTask = scheduledExecutorService.scheduleWithFixedDelay(this::sweep,
+                SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (sweepTask != null) {
+            sweepTask.cancel(false);
+        }
+    }
+
+    /**
+     * Subscribe the sink to the events of the given cities.
+     *
+     * @param eventSink the event sink
+     * @param cities    the cities, empty to subscribe to all cities
+     * @param replay    the events to send before any live event, e.g. missed since the Last-Event-ID.
+     *                  Obtained after the sink is registered, so no event gets lost in between.
+     */
+    void subscribe(SseEventSink eventSink, Collection<String> cities, Supplier<List<WeatherStationEvent>> replay) {
+        Subscription subscription = new Subscription(eventSink, cities);
+        if (subscription.cities.isEmpty()) {
+            allCities.add(subscription);
+        } else {
+            for (String city : subscription.cities) {
+                byCity.compute(city, (key, subscriptions) -> {
+                    Set<Subscription> index = subscriptions != null ? subscriptions : newCityIndex(key);
+                    index.add(subscription);
+                    return index;
+                });
+            }
+        }
+
+        long count = registeredEventSinks.incrementAndGet();
+        LOGGER.log(Level.INFO, "Currently {0} events sinks listening.", count);
+
+        subscription.replay(replay.get());
+    }
+
+    /**
+     * Send the event to all sinks subscribed to the city. Costs time in proportion to the matching sinks.
+     *
+     * @param event the event
+     */
+    void publish(WeatherStationEvent event) {
+        allCities.forEach(subscription -> subscription.send(event));
+        byCity.getOrDefault(event.getCity(), Collections.emptySet()).forEach(subscription -> subscription.send(event));
+    }
+
+    public long registeredEventSinks() {
+        return registeredEventSinks.get();
+    }
+
+    /**
+     * The total number of queued outbound events of all sinks, counting sinks subscribed to several cities once.
+     *
+     * @return the queue depth
+     */
+    public long queuedEvents() {
+        return subscriptions().stream().mapToLong(Subscription::queued).sum();
+    }
+
+    /**
+     * Remove closed sinks, also of cities without events, and evict sinks without progress.
+     */
+    void sweep() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Subscription subscription : subscriptions()) {
+                if (subscription.eventSink.isClosed()) {
+                    unsubscribe(subscription);
+                } else if (subscription.isStalled(now)) {
+                    evict(subscription, "Evicting stalled event sink, no event completed within {0} ms.", stallTimeout);
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not sweep the event sinks.", e);
+        }
+    }
+
+    private Set<Subscription> subscriptions() {
+        Set<Subscription> subscriptions = new HashSet<>(allCities);
+        byCity.values().forEach(subscriptions::addAll);
+        return subscriptions;
+    }
+
+    /**
+     * Create the index of a city and its sink gauge, called atomically with the first subscription.
+     */
+    private Set<Subscription> newCityIndex(String city) {
+        Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+        String name = gaugeName(city);
+        if (!metricRegistry.getGauges().containsKey(name)) {
+            metricRegistry.register(name, (Gauge<Integer>) () -> byCity.getOrDefault(city, Collections.emptySet()).size());
+        }
+        return subscriptions;
+    }
+
+    private static String gaugeName(String city) {
+        return MetricRegistry.name(WeatherStationResource.class, "registeredEventSinks", city);
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        boolean removed;
+        if (subscription.cities.isEmpty()) {
+            removed = allCities.remove(subscription);
+        } else {
+            // drop the index and gauge of cities without sinks, subscribers may name arbitrary cities
+            AtomicBoolean removedFromCity = new AtomicBoolean();
+            for (String city : subscription.cities) {
+                byCity.computeIfPresent(city, (key, subscriptions) -> {
+                    if (subscriptions.remove(subscription)) {
+                        removedFromCity.set(true);
+                    }
+                    if (subscriptions.isEmpty()) {
+                        metricRegistry.remove(gaugeName(key));
+                        return null;
+                    }
+                    return subscriptions;
+                });
+            }
+            removed = removedFromCity.get();
+        }
+
+        if (removed) {
+            long count = registeredEventSinks.decrementAndGet();
+            LOGGER.log(Level.INFO, "Closing sink. Currently {0} events sinks listening.", count);
+        }
+    }
+
+    private void evict(Subscription subscription, String message, Object param) {
+        LOGGER.log(Level.WARNING, message, param);
+        evictedSinks.inc();
+        unsubscribe(subscription);
+        subscription.eventSink.close();
+    }
+
+    private class Subscription {
+        private final SseEventSink eventSink;
+        private final Set<String> cities;
+
+        private final Deque<WeatherStationEvent> queue = new ArrayDeque<>();
+        // live events are only queued until the replay has been prepended
+        private boolean sending = true;
+        private int overflows;
+        private long replayedUpTo = -1;
+        // the start of the event in flight, or of the subscription
+        private long sendingSince = System.currentTimeMillis();
+
+        private Subscription(SseEventSink eventSink, Collection<String> cities) {
+            this.eventSink = eventSink;
+            this.cities = new LinkedHashSet<>(cities);
+        }
+
+        private void replay(List<WeatherStationEvent> events) {
+            WeatherStationEvent first;
+            synchronized (this) {
+                Deque<WeatherStationEvent> live = new ArrayDeque<>(queue);
+                queue.clear();
+                // the replay may be long, it is subject to the same queue bound and drop policy as live events
+                for (WeatherStationEvent event : events) {
+                    if (cities.isEmpty() || cities.contains(event.getCity())) {
+                        enqueue(event);
+                    }
+                    replayedUpTo = Math.max(replayedUpTo, event.getSequence());
+                }
+                for (WeatherStationEvent event : live) {
+                    if (event.getSequence() > replayedUpTo) {
+                        enqueue(event);
+                    }
+                }
+                first = queue.pollFirst();
+                sending = first != null;
+            }
+            if (first != null) {
+                dispatch(first);
+            }
+        }
+
+        private void send(WeatherStationEvent event) {
+            if (eventSink.isClosed()) {
+                unsubscribe(this);
+                return;
+            }
+
+            WeatherStationEvent dispatchNow = null;
+            boolean evict = false;
+            synchronized (this) {
+                if (event.getSequence() <= replayedUpTo) {
+                    // already sent as part of the replay
+                    return;
+                } else if (!sending) {
+                    sending = true;
+                    dispatchNow = event;
+                } else if (enqueue(event)) {
+                    evict = ++overflows >= evictAfter;
+                } else {
+                    overflows = 0;
+                }
+            }
+
+            if (evict) {
+                evict(this, "Evicting slow event sink after {0} dropped events.", evictAfter);
+            } else if (dispatchNow != null) {
+                dispatch(dispatchNow);
+            }
+        }
+
+        /**
+         * Queue the event according to the drop policy, must hold the lock.
+         *
+         * @return true if the queue was full and its oldest event got dropped
+         */
+        private boolean enqueue(WeatherStationEvent event) {
+            if (policy == DropPolicy.LATEST_PER_CITY) {
+                dropQueued(event.getCity());
+            }
+            boolean overflow = queue.size() >= queueSize;
+            if (overflow) {
+                queue.removeFirst();
+                droppedEvents.inc();
+            }
+            queue.addLast(event);
+            return overflow;
+        }
+
+        private void dropQueued(String city) {
+            Iterator<WeatherStationEvent> queued = queue.iterator();
+            while (queued.hasNext()) {
+                if (queued.next().getCity().equals(city)) {
+                    queued.remove();
+                    droppedEvents.inc();
+                    return;
+                }
+            }
+        }
+
+        private void dispatch(WeatherStationEvent event) {
+            synchronized (this) {
+                sendingSince = System.currentTimeMillis();
+            }
+            eventSink.send(event.getEvent()).whenComplete((v, throwable) -> {
+                if (throwable != null) {
+                    LOGGER.log(Level.WARNING, "Error on event sink.", throwable);
+                    unsubscribe(this);
+                    return;
+                }
+
+                WeatherStationEvent next;
+                synchronized (this) {
+                    next = queue.pollFirst();
+                    sending = next != null;
+                }
+                if (next != null) {
+                    dispatch(next);
+                }
+            });
+        }
+
+        private synchronized boolean isStalled(long now) {
+            return sending && stallTimeout > 0 && now - sendingSince > stallTimeout;
+        }
+
+        private synchronized int queued() {
+            return queue.size();
+        }
+    }
+}
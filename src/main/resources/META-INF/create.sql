@@ -1,2 +0,0 @@
-DROP DATABASE IF EXISTS weather
-CREATE DATABASE weather
\ No newline at end of file
@@ -0,0 +1,12 @@
+-- Optional: weather_history partitioned by month, create before deployment and add partitions ahead of time.
+-- Needs PostgreSQL 11 or later for the primary key on a partitioned table. The schema action only creates
+-- missing tables, so the deployment keeps this table.
+CREATE TABLE weather_history (
+    city        VARCHAR(255) NOT NULL,
+    observed_at BIGINT       NOT NULL,
+    weather     VARCHAR(255) NOT NULL,
+    PRIMARY KEY (city, observed_at)
+) PARTITION BY RANGE (observed_at);
+
+-- observed_at is in epoch millis, e.g. January 2026
+CREATE TABLE weather_history_2026_01 PARTITION OF weather_history FOR VALUES FROM (1767225600000) TO (1769904000000);
@@ -0,0 +1,193 @@
+package cloud.nativ.javaee.cbor;
+
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import static cloud.nativ.javaee.cbor.CborWriterTest.toHex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests the JSON to CBOR round trip of the {@link CborJsonGenerator}. The CBOR is decoded back to
+ * JSON-P values by an independent decoder, which supports all items the generator writes.
+ */
+public class CborJsonGeneratorTest {
+
+    @Test
+    public void roundTripsAllJsonTypes() throws IOException {
+        String json = "{\"city\":\"München\",\"weather\":\"水 🌦\",\"observed-at\":1539856800000,"
+                + "\"small\":[0,23,24,255,256,65535,65536,4294967295,4294967296,9223372036854775807],"
+                + "\"negative\":[-1,-24,-25,-256,-257,-65537,-4294967297,-9223372036854775808],"
+                + "\"floats\":[0.5,-4.1,1.1,1.0E-10,3.4028234663852886E38],"
+                + "\"flags\":[true,false,null],\"empty\":{},\"none\":[],"
+                + "\"nested\":{\"a\":[{\"b\":[[]]}]}}";
+        JsonValue value = Json.createReader(new StringReader(json)).readValue();
+
+        assertEquals(value, decode(generate(value)));
+    }
+
+    @Test
+    public void roundTripsLongTexts() throws IOException {
+        JsonArrayBuilder texts = Json.createArrayBuilder();
+        JsonObjectBuilder keys = Json.createObjectBuilder();
+        for (int length : new int[]{23, 24, 255, 256, 65535, 65536}) {
+            StringBuilder text = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                text.append((char) ('a' + i % 26));
+            }
+            texts.add(text.toString());
+            keys.add(text.toString(), length);
+        }
+        JsonValue value = Json.createArrayBuilder().add(texts).add(keys).build();
+
+        assertEquals(value, decode(generate(value)));
+    }
+
+    @Test
+    public void writesIndefiniteLengthStructures() {
+        JsonValue value = Json.createObjectBuilder()
+                .add("a", 1)
+                .add("b", Json.createArrayBuilder().add(2).add(true))
+                .build();
+
+        assertEquals("bf61610161629f02f5ffff", toHex(generate(value)));
+    }
+
+    @Test
+    public void writesIntegersBeyondLongAsDouble() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonGenerator generator = new CborJsonGenerator(bytes);
+        generator.write(BigInteger.ONE.shiftLeft(64)).flush();
+
+        assertEquals(Json.createValue(Math.pow(2, 64)), decode(bytes.toByteArray()));
+    }
+
+    @Test
+    public void closeLeavesTheStreamOpen() {
+        StreamSpy stream = new StreamSpy();
+        JsonGenerator generator = new CborJsonProvider().createGenerator(stream);
+        generator.writeStartArray().write("Munich").writeEnd();
+        generator.close();
+
+        assertFalse(stream.closed);
+        assertEquals("9f664d756e696368ff", toHex(stream.toByteArray()));
+    }
+
+    private static byte[] generate(JsonValue value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonGenerator generator = new CborJsonGenerator(bytes);
+        generator.write(value);
+        generator.flush();
+        return bytes.toByteArray();
+    }
+
+    private static JsonValue decode(byte[] cbor) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(cbor));
+        JsonValue value = decodeItem(input, input.readUnsignedByte());
+        assertEquals("trailing bytes", -1, input.read());
+        return value;
+    }
+
+    private static JsonValue decodeItem(DataInputStream input, int initial) throws IOException {
+        int major = initial >>> 5;
+        int additional = initial & 0x1f;
+        switch (initial) {
+            case 0xf4:
+                return JsonValue.FALSE;
+            case 0xf5:
+                return JsonValue.TRUE;
+            case 0xf6:
+                return JsonValue.NULL;
+            case 0xfb:
+                return Json.createValue(input.readDouble());
+            default:
+                break;
+        }
+
+        switch (major) {
+            case 0:
+                return Json.createValue(unsigned(length(input, additional)));
+            case 1:
+                return Json.createValue(unsigned(length(input, additional)).not());
+            case 3:
+                byte[] text = new byte[(int) length(input, additional)];
+                input.readFully(text);
+                return Json.createValue(new String(text, StandardCharsets.UTF_8));
+            case 4:
+                JsonArrayBuilder array = Json.createArrayBuilder();
+                if (additional == 31) {
+                    for (int next = input.readUnsignedByte(); next != 0xff; next = input.readUnsignedByte()) {
+                        array.add(decodeItem(input, next));
+                    }
+                } else {
+                    for (long i = length(input, additional); i > 0; i--) {
+                        array.add(decodeItem(input, input.readUnsignedByte()));
+                    }
+                }
+                return array.build();
+            case 5:
+                JsonObjectBuilder object = Json.createObjectBuilder();
+                if (additional == 31) {
+                    for (int next = input.readUnsignedByte(); next != 0xff; next = input.readUnsignedByte()) {
+                        object.add(key(input, next), decodeItem(input, input.readUnsignedByte()));
+                    }
+                } else {
+                    for (long i = length(input, additional); i > 0; i--) {
+                        object.add(key(input, input.readUnsignedByte()), decodeItem(input, input.readUnsignedByte()));
+                    }
+                }
+                return object.build();
+            default:
+                throw new IOException("Unexpected CBOR item " + Integer.toHexString(initial));
+        }
+    }
+
+    private static String key(DataInputStream input, int initial) throws IOException {
+        return ((JsonString) decodeItem(input, initial)).getString();
+    }
+
+    private static long length(DataInputStream input, int additional) throws IOException {
+        if (additional < 24) {
+            return additional;
+        }
+        switch (additional) {
+            case 24:
+                return input.readUnsignedByte();
+            case 25:
+                return input.readUnsignedShort();
+            case 26:
+                return input.readInt() & 0xffffffffL;
+            case 27:
+                return input.readLong();
+            default:
+                throw new IOException("Unexpected CBOR length " + additional);
+        }
+    }
+
+    private static BigInteger unsigned(long value) {
+        BigInteger unsigned = BigInteger.valueOf(value);
+        return value >= 0 ? unsigned : unsigned.add(BigInteger.ONE.shiftLeft(64));
+    }
+
+    private static class StreamSpy extends ByteArrayOutputStream {
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
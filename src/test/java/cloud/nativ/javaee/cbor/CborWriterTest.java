@@ -0,0 +1,158 @@
+package cloud.nativ.javaee.cbor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the {@link CborWriter} against the examples of RFC 7049 Appendix A, and the round trip
+ * through the {@link CborReader}.
+ */
+public class CborWriterTest {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final CborWriter writer = new CborWriter(bytes);
+
+    @Test
+    public void writesUnsignedIntegersOfAllLengths() throws IOException {
+        assertEncoded("00", w -> w.write(0));
+        assertEncoded("17", w -> w.write(23));
+        assertEncoded("1818", w -> w.write(24));
+        assertEncoded("18ff", w -> w.write(255));
+        assertEncoded("190100", w -> w.write(256));
+        assertEncoded("1903e8", w -> w.write(1000));
+        assertEncoded("1a000f4240", w -> w.write(1000000));
+        assertEncoded("1b000000e8d4a51000", w -> w.write(1000000000000L));
+        assertEncoded("1b7fffffffffffffff", w -> w.write(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void writesNegativeIntegers() throws IOException {
+        assertEncoded("20", w -> w.write(-1));
+        assertEncoded("29", w -> w.write(-10));
+        assertEncoded("37", w -> w.write(-24));
+        assertEncoded("3818", w -> w.write(-25));
+        assertEncoded("3863", w -> w.write(-100));
+        assertEncoded("3903e7", w -> w.write(-1000));
+        assertEncoded("3b7fffffffffffffff", w -> w.write(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void writesSimpleValuesAndDoubles() throws IOException {
+        assertEncoded("f4", w -> w.write(false));
+        assertEncoded("f5", w -> w.write(true));
+        assertEncoded("f6", CborWriter::writeNull);
+        assertEncoded("f6", w -> w.write((String) null));
+        assertEncoded("fb3ff199999999999a", w -> w.write(1.1));
+        assertEncoded("fbc010666666666666", w -> w.write(-4.1));
+    }
+
+    @Test
+    public void writesUtf8Text() throws IOException {
+        assertEncoded("60", w -> w.write(""));
+        assertEncoded("6449455446", w -> w.write("IETF"));
+        assertEncoded("62c3bc", w -> w.write("ü"));
+        assertEncoded("63e6b0b4", w -> w.write("水"));
+        assertEncoded("64f0908591", w -> w.write("𐅑"));
+    }
+
+    @Test
+    public void writesMapsAndArrays() throws IOException {
+        assertEncoded("a201020304", w -> w.writeStartMap(2).write(1).write(2).write(3).write(4));
+        assertEncoded("bf6346756ef563416d7421ff",
+                w -> w.writeStartMap().write("Fun").write(true).write("Amt").write(-2).writeEnd());
+        assertEncoded("9fff", w -> w.writeStartArray().writeEnd());
+        assertEncoded("9f019f0203ff6161ff",
+                w -> w.writeStartArray().write(1).writeStartArray().write(2).write(3).writeEnd().write("a").writeEnd());
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        long[] numbers = {0, 23, 24, 255, 256, 65535, 65536, 0xffffffffL, 0x100000000L, Long.MAX_VALUE,
+                -1, -24, -25, -256, -257, -65537, -0x100000001L, Long.MIN_VALUE};
+        String[] texts = {"", "Munich", "München", "水", "🌦", repeat('x', 23), repeat('y', 24),
+                repeat('z', 256), repeat('ä', 40000)};
+
+        writer.writeStartMap(numbers.length + texts.length + 1);
+        for (long number : numbers) {
+            writer.write("n" + number).write(number);
+        }
+        for (String text : texts) {
+            writer.write("t" + text.length()).write(text);
+        }
+        writer.write("null").writeNull();
+
+        CborReader reader = new CborReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(numbers.length + texts.length + 1, reader.readStartMap());
+        for (long number : numbers) {
+            assertEquals("n" + number, reader.readText());
+            assertEquals(number, reader.readLong());
+        }
+        for (String text : texts) {
+            assertEquals("t" + text.length(), reader.readText());
+            assertEquals(text, reader.readText());
+        }
+        assertEquals("null", reader.readText());
+        assertNull(reader.readText());
+    }
+
+    @Test
+    public void skipsNestedValues() throws IOException {
+        writer.writeStartMap(2)
+                .write("nested").writeStartMap(2).write("a").write(-300).write("b").writeStartMap(1).write("c").writeNull()
+                .write("city").write("munich,de");
+
+        CborReader reader = new CborReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(2, reader.readStartMap());
+        assertEquals("nested", reader.readText());
+        reader.skipValue();
+        assertEquals("city", reader.readText());
+        assertEquals("munich,de", reader.readText());
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsOnTruncatedText() throws IOException {
+        writer.write("Munich");
+        byte[] truncated = new byte[bytes.size() - 1];
+        System.arraycopy(bytes.toByteArray(), 0, truncated, 0, truncated.length);
+        new CborReader(new ByteArrayInputStream(truncated)).readText();
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnUnexpectedMajorType() throws IOException {
+        writer.write(42);
+        new CborReader(new ByteArrayInputStream(bytes.toByteArray())).readText();
+    }
+
+    private void assertEncoded(String hex, Write write) throws IOException {
+        bytes.reset();
+        write.to(writer);
+        assertEquals(hex, toHex(bytes.toByteArray()));
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private interface Write {
+        void to(CborWriter writer) throws IOException;
+    }
+}
@@ -0,0 +1,48 @@
+package cloud.nativ.javaee.weather;
+
+import cloud.nativ.javaee.cbor.CborWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the JSON and CBOR formats of the {@link CurrentWeatherCodec} carry the same weather.
+ */
+public class CurrentWeatherCodecTest {
+
+    private final CurrentWeather weather = new CurrentWeather("münchen,de", "Light Rain 🌦", 1539856800000L);
+
+    @Test
+    public void messageRoundTripsThroughJsonAndCbor() {
+        CurrentWeather fromJson = CurrentWeatherCodec.fromJson(CurrentWeatherCodec.toMessageJson(weather));
+        CurrentWeather fromCbor = CurrentWeatherCodec.fromCbor(CurrentWeatherCodec.toMessageCbor(weather));
+
+        assertEquals(weather, fromJson);
+        assertEquals(weather, fromCbor);
+    }
+
+    @Test
+    public void eventFormatsAgree() {
+        CurrentWeather fromJson = CurrentWeatherCodec.fromJson(CurrentWeatherCodec.toEventJson(weather));
+        CurrentWeather fromCbor = CurrentWeatherCodec.fromCbor(CurrentWeatherCodec.toEventCbor(weather));
+
+        assertEquals(fromJson, fromCbor);
+        assertEquals(weather.getCity(), fromCbor.getCity());
+        assertEquals(weather.getWeather(), fromCbor.getWeather());
+    }
+
+    @Test
+    public void unknownCborKeysAreSkipped() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new CborWriter(bytes).writeStartMap(4)
+                .write("extra").writeStartMap(1).write("n").write(-1000)
+                .write("city").write(weather.getCity())
+                .write("observed-at").write(weather.getObservedAt())
+                .write("weather").write(weather.getWeather());
+
+        assertEquals(weather, CurrentWeatherCodec.fromCbor(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,136 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.postgresql.ds.PGSimpleDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static cloud.nativ.javaee.weather.TestBeans.inject;
+import static cloud.nativ.javaee.weather.TestBeans.proxy;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Integration test of the {@link CurrentWeatherWriteBehind} and the {@link CurrentWeatherStorage} batch
+ * statements against PostgreSQL. Needs Docker, run with {@code mvn verify} or {@code gradle integrationTest}.
+ */
+public class CurrentWeatherWriteBehindIT {
+
+    private static final int UPDATES = 4;
+
+    @ClassRule
+    public static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:9.6.3");
+
+    private PGSimpleDataSource dataSource;
+    private ExecutorService executor;
+    private CurrentWeatherStorage storage;
+    private CurrentWeatherWriteBehind writeBehind;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new PGSimpleDataSource();
+        dataSource.setUrl(POSTGRES.getJdbcUrl());
+        dataSource.setUser(POSTGRES.getUsername());
+        dataSource.setPassword(POSTGRES.getPassword());
+        execute("DROP TABLE IF EXISTS current_weather, weather_history",
+                "CREATE TABLE current_weather (city VARCHAR(255) PRIMARY KEY, weather VARCHAR(255) NOT NULL, "
+                        + "observed_at BIGINT NOT NULL)",
+                "CREATE TABLE weather_history (city VARCHAR(255) NOT NULL, observed_at BIGINT NOT NULL, "
+                        + "weather VARCHAR(255) NOT NULL, PRIMARY KEY (city, observed_at))");
+
+        storage = new CurrentWeatherStorage();
+        inject(storage, "dataSource", dataSource);
+        inject(storage, "historyEnabled", true);
+
+        executor = Executors.newSingleThreadExecutor();
+        writeBehind = new CurrentWeatherWriteBehind();
+        inject(writeBehind, "storage", storage);
+        inject(writeBehind, "enabled", true);
+        inject(writeBehind, "batchSize", 100);
+        inject(writeBehind, "flushes", proxy(Counter.class, null));
+        inject(writeBehind, "collapsed", proxy(Counter.class, null));
+        inject(writeBehind, "executorService", proxy(ManagedExecutorService.class, executor));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void saveAllKeepsNewestWeatherAndAppendsHistoryOnce() throws Exception {
+        CurrentWeather older = new CurrentWeather("munich,de", "Rain", 1000L);
+        CurrentWeather newer = new CurrentWeather("munich,de", "Sun", 2000L);
+
+        storage.saveAll(Collections.singletonList(newer), Arrays.asList(older, newer));
+        // redelivered and out of order updates are no-ops
+        storage.saveAll(Collections.singletonList(older), Arrays.asList(older, newer));
+
+        assertEquals(Collections.singletonList("munich,de|Sun|2000"), query("SELECT city, weather, observed_at FROM current_weather"));
+        assertEquals(Arrays.asList("munich,de|Rain|1000", "munich,de|Sun|2000"),
+                query("SELECT city, weather, observed_at FROM weather_history ORDER BY observed_at"));
+    }
+
+    @Test(timeout = 10000L)
+    public void updatesOfDifferentCitiesAreAllStored() throws Exception {
+        List<CompletableFuture<Void>> flushed = new ArrayList<>();
+        for (int i = 0; i < UPDATES; i++) {
+            flushed.add(writeBehind.submit(new CurrentWeather("city-" + i, "Sun", 1000L + i)));
+        }
+
+        CompletableFuture.allOf(flushed.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(String.valueOf(UPDATES)), query("SELECT count(*) FROM current_weather"));
+    }
+
+    @Test(timeout = 10000L)
+    public void repeatedUpdatesOfOneCityKeepTheNewestAndTheFullHistory() throws Exception {
+        List<CompletableFuture<Void>> flushed = new ArrayList<>();
+        for (int i = 0; i < UPDATES; i++) {
+            flushed.add(writeBehind.submit(new CurrentWeather("munich,de", "Sun " + i, 1000L + i)));
+        }
+
+        CompletableFuture.allOf(flushed.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("munich,de|Sun 3|1003"), query("SELECT city, weather, observed_at FROM current_weather"));
+        assertEquals(Collections.singletonList(String.valueOf(UPDATES)), query("SELECT count(*) FROM weather_history"));
+    }
+
+    private void execute(String... statements) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private List<String> query(String sql) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++) {
+                    row.append(i > 1 ? "|" : "").append(resultSet.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,148 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static cloud.nativ.javaee.weather.TestBeans.counter;
+import static cloud.nativ.javaee.weather.TestBeans.inject;
+import static cloud.nativ.javaee.weather.TestBeans.proxy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the group commit of the {@link CurrentWeatherWriteBehind} with a storage stub, whose first flush
+ * is held until the test releases it. The SQL of the batches is covered by {@link CurrentWeatherWriteBehindIT}.
+ */
+public class CurrentWeatherWriteBehindTest {
+
+    private final BlockingQueue<List<String>> flushedHistory = new LinkedBlockingQueue<>();
+    private final CountDownLatch firstFlushStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseFirstFlush = new CountDownLatch(1);
+    private final Counter collapsed = counter();
+    private volatile boolean failFlushes;
+
+    private ExecutorService executor;
+    private CurrentWeatherWriteBehind writeBehind;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        writeBehind = new CurrentWeatherWriteBehind();
+        inject(writeBehind, "storage", new CurrentWeatherStorage() {
+            @Override
+            public void saveAll(Collection<CurrentWeather> currentWeathers, Collection<CurrentWeather> history) {
+                if (firstFlushStarted.getCount() > 0) {
+                    firstFlushStarted.countDown();
+                    await(releaseFirstFlush);
+                }
+                if (failFlushes) {
+                    throw new IllegalStateException("database down");
+                }
+                flushedHistory.add(history.stream()
+                        .map(update -> update.getCity() + "|" + update.getWeather())
+                        .collect(Collectors.toList()));
+            }
+        });
+        inject(writeBehind, "enabled", true);
+        inject(writeBehind, "batchSize", 3);
+        inject(writeBehind, "flushes", counter());
+        inject(writeBehind, "collapsed", collapsed);
+        inject(writeBehind, "executorService", proxy(ManagedExecutorService.class, executor));
+    }
+
+    @After
+    public void tearDown() {
+        releaseFirstFlush.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void firstUpdateIsFlushedRightAway() throws Exception {
+        releaseFirstFlush.countDown();
+        writeBehind.submit(weather("munich,de", "Sun", 1)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList("munich,de|Sun"), flushedHistory.poll());
+    }
+
+    @Test
+    public void updatesArrivingDuringAFlushAreFlushedAsOneBatch() throws Exception {
+        CompletableFuture<Void> first = writeBehind.submit(weather("munich,de", "Sun", 1));
+        assertTrue(firstFlushStarted.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> second = writeBehind.submit(weather("munich,de", "Rain", 2));
+        CompletableFuture<Void> third = writeBehind.submit(weather("munich,de", "Snow", 3));
+        assertFalse(second.isDone());
+        // collapsed within the next batch only, the flushing batch is not changed anymore
+        assertEquals(1L, collapsed.getCount());
+
+        releaseFirstFlush.countDown();
+        CompletableFuture.allOf(first, second, third).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("munich,de|Sun"), flushedHistory.poll());
+        assertEquals(Arrays.asList("munich,de|Rain", "munich,de|Snow"), flushedHistory.poll());
+        assertTrue(flushedHistory.isEmpty());
+    }
+
+    @Test
+    public void fullBatchesAreClosedAndFlushedInOrder() throws Exception {
+        List<CompletableFuture<Void>> flushed = new ArrayList<>();
+        flushed.add(writeBehind.submit(weather("city-0", "Sun", 1)));
+        assertTrue(firstFlushStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 4; i++) {
+            flushed.add(writeBehind.submit(weather("city-" + i, "Sun", 1)));
+        }
+
+        releaseFirstFlush.countDown();
+        CompletableFuture.allOf(flushed.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("city-0|Sun"), flushedHistory.poll());
+        assertEquals(Arrays.asList("city-1|Sun", "city-2|Sun", "city-3|Sun"), flushedHistory.poll());
+        assertEquals(Collections.singletonList("city-4|Sun"), flushedHistory.poll());
+    }
+
+    @Test
+    public void failedFlushFailsItsUpdatesAndKeepsFlushing() throws Exception {
+        failFlushes = true;
+        releaseFirstFlush.countDown();
+        try {
+            writeBehind.submit(weather("munich,de", "Sun", 1)).get(5, TimeUnit.SECONDS);
+            fail("Expected the flush to fail.");
+        } catch (ExecutionException e) {
+            assertEquals("database down", e.getCause().getMessage());
+        }
+
+        failFlushes = false;
+        writeBehind.submit(weather("munich,de", "Sun", 1)).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("munich,de|Sun"), flushedHistory.poll());
+    }
+
+    private static CurrentWeather weather(String city, String weather, long observedAt) {
+        return new CurrentWeather(city, weather, observedAt);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cloud.nativ.javaee.weather;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static cloud.nativ.javaee.weather.TestBeans.inject;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the count-min sketch and top-K tracking of the {@link HotCities}.
+ */
+public class HotCitiesTest {
+
+    private HotCities hotCities;
+
+    @Before
+    public void setUp() throws Exception {
+        hotCities = new HotCities();
+        inject(hotCities, "width", 2048);
+        inject(hotCities, "topK", 3);
+        hotCities.initialize();
+    }
+
+    @Test
+    public void hottestCitiesReplaceColderOnes() {
+        record("munich,de", 5);
+        record("london,gb", 4);
+        record("paris,fr", 3);
+        record("rome,it", 1);
+        assertEquals(Arrays.asList("munich,de", "london,gb", "paris,fr"), cities());
+
+        record("rome,it", 9);
+        assertEquals(Arrays.asList("rome,it", "munich,de", "london,gb"), cities());
+        assertEquals(10, (int) hotCities.getTop().get(0).getValue());
+    }
+
+    @Test
+    public void decayHalvesCountsAndDropsColdCities() {
+        record("munich,de", 8);
+        record("london,gb", 1);
+        hotCities.decay();
+
+        assertEquals(Arrays.asList("munich,de"), cities());
+        assertEquals(4, (int) hotCities.getTop().get(0).getValue());
+
+        // the freed slots are open again
+        record("paris,fr", 1);
+        assertEquals(Arrays.asList("munich,de", "paris,fr"), cities());
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int thread = 0; thread < 8; thread++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    hotCities.record("munich,de");
+                    hotCities.record("city-" + (i % 50));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        Map.Entry<String, Integer> hottest = hotCities.getTop().get(0);
+        assertEquals("munich,de", hottest.getKey());
+        // a count-min sketch never underestimates
+        assertTrue(hottest.getValue() >= 80000);
+        assertEquals(3, hotCities.getTop().size());
+    }
+
+    private void record(String city, int times) {
+        for (int i = 0; i < times; i++) {
+            hotCities.record(city);
+        }
+    }
+
+    private List<String> cities() {
+        return hotCities.getTop().stream().map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+}
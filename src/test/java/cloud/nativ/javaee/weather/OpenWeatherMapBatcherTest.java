@@ -0,0 +1,228 @@
+package cloud.nativ.javaee.weather;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.microprofile.metrics.Counter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.inject.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static cloud.nativ.javaee.weather.TestBeans.inject;
+import static cloud.nativ.javaee.weather.TestBeans.proxy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link OpenWeatherMapBatcher} against a stub OpenWeatherMap server, which answers
+ * single and group calls from a fixed set of cities and records the calls it received.
+ */
+public class OpenWeatherMapBatcherTest {
+
+    private final Map<Long, String> stubWeather = new ConcurrentHashMap<>();
+    private final Queue<String> singleCalls = new ConcurrentLinkedQueue<>();
+    private final Queue<String> groupCalls = new ConcurrentLinkedQueue<>();
+
+    private HttpServer server;
+    private ScheduledExecutorService executor;
+    private CityRegistry cityRegistry;
+    private OpenWeatherMapBatcher batcher;
+
+    @Before
+    public void setUp() throws Exception {
+        stubWeather.put(2867714L, "Clear");
+        stubWeather.put(2643743L, "Rain");
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/data/2.5/weather", this::weather);
+        server.createContext("/data/2.5/group", this::group);
+        server.start();
+
+        executor = Executors.newScheduledThreadPool(4);
+        cityRegistry = new CityRegistry();
+        batcher = newBatcher(2, TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void unknownCityIsFetchedSingleAndRegistered() throws Exception {
+        WeatherObservation observation = batcher.fetch("munich,de").get(5, TimeUnit.SECONDS);
+
+        assertEquals("Clear", observation.getWeather());
+        assertEquals(2867714L, cityRegistry.openWeatherMapIdOf("munich,de"));
+        assertEquals(Collections.singletonList("q=munich,de"), queries(singleCalls));
+        assertTrue(groupCalls.isEmpty());
+    }
+
+    @Test
+    public void fullBatchOfKnownCitiesIsFetchedWithOneGroupCall() throws Exception {
+        cityRegistry.register("munich,de", 2867714L);
+        cityRegistry.register("london,gb", 2643743L);
+
+        CompletableFuture<WeatherObservation> munich = batcher.fetch("munich,de");
+        CompletableFuture<WeatherObservation> london = batcher.fetch("london,gb");
+
+        // the batch is full, it must not wait for the window
+        assertEquals("Clear", munich.get(500, TimeUnit.MILLISECONDS).getWeather());
+        assertEquals("Rain", london.get(500, TimeUnit.MILLISECONDS).getWeather());
+        assertEquals(Collections.singletonList("id=2867714,2643743"), queries(groupCalls));
+        assertTrue(singleCalls.isEmpty());
+    }
+
+    @Test
+    public void partialBatchIsFetchedAfterTheWindow() throws Exception {
+        batcher = newBatcher(20, 100L);
+        cityRegistry.register("munich,de", 2867714L);
+
+        assertEquals("Clear", batcher.fetch("munich,de").get(5, TimeUnit.SECONDS).getWeather());
+        assertEquals(Collections.singletonList("id=2867714"), queries(groupCalls));
+    }
+
+    @Test
+    public void cityMissingInGroupResponseOnlyFailsItsRequest() throws Exception {
+        cityRegistry.register("munich,de", 2867714L);
+        cityRegistry.register("atlantis,xx", 1L);
+
+        CompletableFuture<WeatherObservation> munich = batcher.fetch("munich,de");
+        CompletableFuture<WeatherObservation> atlantis = batcher.fetch("atlantis,xx");
+
+        assertEquals("Clear", munich.get(5, TimeUnit.SECONDS).getWeather());
+        try {
+            atlantis.get(5, TimeUnit.SECONDS);
+            fail("Expected the request of the missing city to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void batchSizeIsClampedToTheGroupCallLimit() throws Exception {
+        batcher = newBatcher(50, TimeUnit.SECONDS.toMillis(1));
+        List<CompletableFuture<WeatherObservation>> responses = new ArrayList<>();
+        for (int i = 0; i < OpenWeatherMapBatcher.MAX_GROUP_SIZE; i++) {
+            stubWeather.put(100L + i, "Clouds");
+            cityRegistry.register("city-" + i, 100L + i);
+            responses.add(batcher.fetch("city-" + i));
+        }
+
+        // the 20th request fills the batch, it must not wait for the window
+        for (CompletableFuture<WeatherObservation> response : responses) {
+            assertEquals("Clouds", response.get(500, TimeUnit.MILLISECONDS).getWeather());
+        }
+        assertEquals(1, groupCalls.size());
+        assertEquals(OpenWeatherMapBatcher.MAX_GROUP_SIZE, groupCalls.peek().split(",").length);
+    }
+
+    @Test
+    public void requestsBeyondTheMaximumPendingAreRejected() throws Exception {
+        batcher = newBatcher(20, TimeUnit.SECONDS.toMillis(1), 2);
+        cityRegistry.register("munich,de", 2867714L);
+        cityRegistry.register("london,gb", 2643743L);
+
+        batcher.fetch("munich,de");
+        batcher.fetch("london,gb");
+        try {
+            batcher.fetch("munich,de").getNow(null);
+            fail("Expected the request beyond the maximum pending to be rejected.");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private OpenWeatherMapBatcher newBatcher(int batchSize, long windowMillis) throws Exception {
+        return newBatcher(batchSize, windowMillis, 1000);
+    }
+
+    private OpenWeatherMapBatcher newBatcher(int batchSize, long windowMillis, int maxPending) throws Exception {
+        OpenWeatherMapConfiguration configuration = new OpenWeatherMapConfiguration();
+        inject(configuration, "weatherUri", (Provider<String>) () -> "http://localhost:" + server.getAddress().getPort());
+        inject(configuration, "weatherAppId", (Provider<String>) () -> "test");
+        inject(configuration, "batchSize", (Provider<Integer>) () -> batchSize);
+        inject(configuration, "batchWindowMillis", (Provider<Long>) () -> windowMillis);
+        inject(configuration, "batchMaxPending", (Provider<Integer>) () -> maxPending);
+
+        OpenWeatherMapBatcher newBatcher = new OpenWeatherMapBatcher();
+        inject(newBatcher, "configuration", configuration);
+        inject(newBatcher, "cityRegistry", cityRegistry);
+        inject(newBatcher, "batchCalls", proxy(Counter.class, null));
+        inject(newBatcher, "singleCalls", proxy(Counter.class, null));
+        inject(newBatcher, "executorService", proxy(ManagedExecutorService.class, executor));
+        inject(newBatcher, "scheduledExecutorService", proxy(ManagedScheduledExecutorService.class, executor));
+        newBatcher.initialize();
+        return newBatcher;
+    }
+
+    private void weather(HttpExchange exchange) throws IOException {
+        String city = parameter(exchange, "q");
+        singleCalls.add("q=" + city);
+        long id = "munich,de".equals(city) ? 2867714L : 2643743L;
+        respond(exchange, observation(id, stubWeather.get(id)));
+    }
+
+    private void group(HttpExchange exchange) throws IOException {
+        String ids = parameter(exchange, "id");
+        groupCalls.add("id=" + ids);
+        List<String> observations = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            String weather = stubWeather.get(Long.parseLong(id));
+            if (weather != null) {
+                observations.add(observation(Long.parseLong(id), weather));
+            }
+        }
+        respond(exchange, "{\"cnt\":" + observations.size() + ",\"list\":[" + String.join(",", observations) + "]}");
+    }
+
+    private static String observation(long id, String weather) {
+        return "{\"coord\":{\"lon\":11.58,\"lat\":48.14},\"weather\":[{\"id\":800,\"main\":\"" + weather
+                + "\",\"description\":\"sky\"}],\"main\":{\"temp\":280.1},\"id\":" + id + ",\"name\":\"City\"}";
+    }
+
+    private static String parameter(HttpExchange exchange, String name) {
+        for (String parameter : exchange.getRequestURI().getQuery().split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private static List<String> queries(Queue<String> calls) {
+        return new ArrayList<>(calls);
+    }
+}
@@ -0,0 +1,188 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.cache.Cache;
+import javax.inject.Provider;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static cloud.nativ.javaee.weather.TestBeans.inject;
+import static cloud.nativ.javaee.weather.TestBeans.proxy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the stale-while-revalidate caching of the {@link OpenWeatherMapRepository}, with a stub batcher
+ * whose upstream calls are completed by the test, and a map in place of the clustered weatherCache.
+ */
+public class OpenWeatherMapRepositoryTest {
+
+    private static final long SOFT_TTL_SECONDS = 30L;
+    private static final long HARD_TTL_SECONDS = 300L;
+
+    private final Queue<CompletableFuture<WeatherObservation>> upstreamCalls = new ConcurrentLinkedQueue<>();
+    private final Map<String, CachedWeather> clusterCache = new ConcurrentHashMap<>();
+    private final List<CurrentWeather> published = new ArrayList<>();
+
+    private OpenWeatherMapRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        OpenWeatherMapConfiguration configuration = new OpenWeatherMapConfiguration();
+        inject(configuration, "softTtlSeconds", (Provider<Long>) () -> SOFT_TTL_SECONDS);
+        inject(configuration, "hardTtlSeconds", (Provider<Long>) () -> HARD_TTL_SECONDS);
+
+        WeatherNearCache nearCache = new WeatherNearCache();
+        inject(nearCache, "maxSize", 100);
+        for (String counter : new String[]{"hits", "misses", "evictions", "invalidations"}) {
+            inject(nearCache, counter, proxy(Counter.class, null));
+        }
+        nearCache.initialize();
+
+        LastKnownWeather lastKnownWeather = new LastKnownWeather();
+        inject(lastKnownWeather, "maxSize", 100);
+        inject(lastKnownWeather, "fallbacks", proxy(Counter.class, null));
+
+        LastEmittedWeather lastEmittedWeather = new LastEmittedWeather();
+        inject(lastEmittedWeather, "emitted", proxy(Counter.class, null));
+        inject(lastEmittedWeather, "suppressed", proxy(Counter.class, null));
+
+        HotCities hotCities = new HotCities();
+        inject(hotCities, "width", 64);
+        inject(hotCities, "topK", 10);
+        hotCities.initialize();
+
+        repository = new OpenWeatherMapRepository();
+        inject(repository, "configuration", configuration);
+        inject(repository, "batcher", new OpenWeatherMapBatcher() {
+            @Override
+            public CompletableFuture<WeatherObservation> fetch(String city) {
+                CompletableFuture<WeatherObservation> call = new CompletableFuture<>();
+                upstreamCalls.add(call);
+                return call;
+            }
+        });
+        inject(repository, "eventBus", new WeatherEventBus() {
+            @Override
+            public void publish(CurrentWeather currentWeather) {
+                published.add(currentWeather);
+            }
+        });
+        inject(repository, "lastEmittedWeather", lastEmittedWeather);
+        inject(repository, "nearCache", nearCache);
+        inject(repository, "lastKnownWeather", lastKnownWeather);
+        inject(repository, "hotCities", hotCities);
+        inject(repository, "cityRegistry", new CityRegistry());
+        for (String counter : new String[]{"clusterHits", "clusterMisses", "coalescedCalls", "staleHits"}) {
+            inject(repository, counter, proxy(Counter.class, null));
+        }
+        // initialize() would look up the clustered cache
+        inject(repository, "singleFlight", new SingleFlight<String, String>(() -> { }));
+        inject(repository, "weatherCache", mapCache());
+    }
+
+    @Test
+    public void missIsFetchedOnceAndThenCached() throws Exception {
+        CompletableFuture<String> first = repository.getWeatherAsync("Munich,DE").toCompletableFuture();
+        CompletableFuture<String> second = repository.getWeatherAsync("munich,de").toCompletableFuture();
+        assertEquals(1, upstreamCalls.size());
+
+        upstreamCalls.poll().complete(new WeatherObservation(2867714L, "Clear"));
+        assertEquals("Clear", first.get(1, TimeUnit.SECONDS));
+        assertEquals("Clear", second.get(1, TimeUnit.SECONDS));
+
+        assertEquals(Optional.of("Clear"), repository.getCachedWeather("munich,de"));
+        assertTrue(upstreamCalls.isEmpty());
+        assertEquals(1, published.size());
+    }
+
+    @Test
+    public void staleEntryIsServedWhileRefreshedOnce() throws Exception {
+        long fetchedAt = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(SOFT_TTL_SECONDS + 1);
+        clusterCache.put("munich,de", new CachedWeather("munich,de", "Clear", fetchedAt));
+
+        assertEquals("Clear", repository.getWeatherAsync("munich,de").toCompletableFuture().get(1, TimeUnit.SECONDS));
+        assertEquals(Optional.of("Clear"), repository.getCachedWeather("munich,de"));
+        // both stale reads share one background refresh
+        assertEquals(1, upstreamCalls.size());
+        assertEquals(1, repository.inFlightCalls());
+
+        upstreamCalls.poll().complete(new WeatherObservation(2867714L, "Rain"));
+        assertEquals(0, repository.inFlightCalls());
+        CachedWeather refreshed = clusterCache.get("munich,de");
+        assertEquals("Rain", refreshed.getWeather());
+        assertEquals(refreshed.getFetchedAt(), refreshed.getChangedAt());
+        assertEquals(Optional.of("Rain"), repository.getCachedWeather("munich,de"));
+        assertTrue(upstreamCalls.isEmpty());
+    }
+
+    @Test
+    public void unchangedRefreshKeepsTheChangeTime() {
+        long fetchedAt = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(SOFT_TTL_SECONDS + 1);
+        clusterCache.put("munich,de", new CachedWeather("munich,de", "Clear", fetchedAt));
+
+        repository.getCachedWeather("munich,de");
+        upstreamCalls.poll().complete(new WeatherObservation(2867714L, "Clear"));
+
+        CachedWeather refreshed = clusterCache.get("munich,de");
+        assertTrue(refreshed.getFetchedAt() > fetchedAt);
+        assertEquals(fetchedAt, refreshed.getChangedAt());
+    }
+
+    @Test
+    public void failedRefreshKeepsServingTheStaleEntry() {
+        long fetchedAt = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(SOFT_TTL_SECONDS + 1);
+        clusterCache.put("munich,de", new CachedWeather("munich,de", "Clear", fetchedAt));
+
+        repository.getCachedWeather("munich,de");
+        upstreamCalls.poll().completeExceptionally(new IllegalStateException("upstream down"));
+
+        assertEquals(0, repository.inFlightCalls());
+        assertEquals(Optional.of("Clear"), repository.getCachedWeather("munich,de"));
+        // the next stale read tries again
+        assertEquals(1, upstreamCalls.size());
+    }
+
+    @Test
+    public void expiredEntryIsNotServed() {
+        long fetchedAt = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(HARD_TTL_SECONDS + 1);
+        clusterCache.put("munich,de", new CachedWeather("munich,de", "Clear", fetchedAt));
+
+        assertEquals(Optional.empty(), repository.getCachedWeather("munich,de"));
+        CompletableFuture<String> weather = repository.getWeatherAsync("munich,de").toCompletableFuture();
+        assertFalse(weather.isDone());
+
+        upstreamCalls.poll().complete(new WeatherObservation(2867714L, "Snow"));
+        assertEquals("Snow", weather.join());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<String, CachedWeather> mapCache() {
+        return (Cache<String, CachedWeather>) Proxy.newProxyInstance(Cache.class.getClassLoader(),
+                new Class<?>[]{Cache.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "get":
+                            return clusterCache.get(args[0]);
+                        case "put":
+                            clusterCache.put((String) args[0], (CachedWeather) args[1]);
+                            return null;
+                        case "putIfAbsent":
+                            return clusterCache.putIfAbsent((String) args[0], (CachedWeather) args[1]) == null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,135 @@
+package cloud.nativ.javaee.weather;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the call deduplication of the {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    private final AtomicInteger coalesced = new AtomicInteger();
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>(coalesced::incrementAndGet);
+
+    @Test
+    public void concurrentCallersShareOneLoad() throws Exception {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+
+        CompletableFuture<String> first = singleFlight.execute("munich,de", () -> {
+            loads.incrementAndGet();
+            return upstream;
+        });
+        CompletableFuture<String> second = singleFlight.execute("munich,de", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+
+        assertSame(first, second);
+        assertEquals(1, singleFlight.inFlight());
+
+        upstream.complete("Clear");
+        assertEquals("Clear", second.get(1, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        assertEquals(1, coalesced.get());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    public void differentKeysLoadIndependently() {
+        CompletableFuture<String> munich = singleFlight.execute("munich,de", CompletableFuture::new);
+        CompletableFuture<String> london = singleFlight.execute("london,gb", CompletableFuture::new);
+
+        assertTrue(munich != london);
+        assertEquals(2, singleFlight.inFlight());
+        assertEquals(0, coalesced.get());
+    }
+
+    @Test
+    public void completedCallIsNotShared() throws Exception {
+        assertEquals("Clear", singleFlight.execute("munich,de",
+                () -> CompletableFuture.completedFuture("Clear")).get());
+        assertEquals("Rain", singleFlight.execute("munich,de",
+                () -> CompletableFuture.completedFuture("Rain")).get());
+        assertEquals(0, coalesced.get());
+    }
+
+    @Test
+    public void failureIsSharedAndNotCached() throws Exception {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("munich,de", () -> upstream);
+        CompletableFuture<String> second = singleFlight.execute("munich,de", () -> upstream);
+        upstream.completeExceptionally(new IllegalStateException("upstream down"));
+
+        for (CompletableFuture<String> call : Arrays.asList(first, second)) {
+            try {
+                call.get();
+                fail("Expected the upstream failure.");
+            } catch (ExecutionException e) {
+                assertEquals("upstream down", e.getCause().getMessage());
+            }
+        }
+        assertEquals(0, singleFlight.inFlight());
+        assertEquals("Clear", singleFlight.execute("munich,de",
+                () -> CompletableFuture.completedFuture("Clear")).get());
+    }
+
+    @Test
+    public void throwingLoaderFailsTheCall() {
+        CompletableFuture<String> call = singleFlight.execute("munich,de", () -> {
+            throw new IllegalArgumentException("bad city");
+        });
+
+        assertTrue(call.isCompletedExceptionally());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    public void manyThreadsLoadOncePerFlight() throws Exception {
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<CompletableFuture<String>>> calls = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            calls.add(executor.submit(() -> {
+                start.await();
+                return singleFlight.execute("munich,de", () -> {
+                    loads.incrementAndGet();
+                    return upstream;
+                });
+            }));
+        }
+        start.countDown();
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (Future<CompletableFuture<String>> call : calls) {
+            results.add(call.get(5, TimeUnit.SECONDS));
+        }
+        upstream.complete("Clear");
+        executor.shutdown();
+
+        for (CompletableFuture<String> result : results) {
+            assertEquals("Clear", result.get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(threads - 1, coalesced.get());
+    }
+}
@@ -0,0 +1,72 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.metrics.Counter;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wiring of beans without a container, for tests.
+ */
+final class TestBeans {
+
+    private TestBeans() {
+    }
+
+    /**
+     * Set the injected field of the bean.
+     *
+     * @param target the bean
+     * @param name   the field name
+     * @param value  the value
+     */
+    static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * Stand-in for container resources and metrics, e.g. a managed executor backed by a plain executor.
+     *
+     * @param type     the interface
+     * @param delegate the object to delegate to, or null to do nothing
+     * @return the proxy
+     */
+    static <T> T proxy(Class<T> type, Object delegate) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (delegate == null) {
+                return method.getReturnType() == long.class ? 0L : null;
+            }
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+
+    /**
+     * A counter counting in memory, unlike the no-op {@link #proxy(Class, Object)}.
+     *
+     * @return the counter
+     */
+    static Counter counter() {
+        AtomicLong count = new AtomicLong();
+        return (Counter) Proxy.newProxyInstance(Counter.class.getClassLoader(), new Class<?>[]{Counter.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "inc":
+                            return count.addAndGet(args == null ? 1L : (Long) args[0]);
+                        case "dec":
+                            return count.addAndGet(args == null ? -1L : -(Long) args[0]);
+                        case "getCount":
+                            return count.get();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,169 @@
+package cloud.nativ.javaee.weather;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static cloud.nativ.javaee.weather.TestBeans.counter;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the coalescing, bounds, batching and per-city ordering of a {@link WeatherEventPipeline.Stage}.
+ */
+public class WeatherEventPipelineTest {
+
+    private final Counter dropped = counter();
+    private final Counter coalesced = counter();
+    private final BlockingQueue<List<CurrentWeather>> batches = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private WeatherEventPipeline.Stage stage;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (stage != null) {
+            stage.stop();
+        }
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test
+    public void coalescesPendingEventsOfACityKeepingTheNewest() throws Exception {
+        stage = new WeatherEventPipeline.Stage("test", 10, 10, batches::add, dropped, coalesced);
+        stage.offer(weather("munich,de", "Clear", 2));
+        stage.offer(weather("munich,de", "Rain", 3));
+        stage.offer(weather("munich,de", "Snow", 1));
+        assertEquals(1, stage.queued());
+        assertEquals(2, coalesced.getCount());
+
+        startWorkers(1);
+        assertEquals(Collections.singletonList(weather("munich,de", "Rain", 3)), nextBatch());
+    }
+
+    @Test
+    public void dropsTheOldestEventWhenFull() throws Exception {
+        stage = new WeatherEventPipeline.Stage("test", 2, 10, batches::add, dropped, coalesced);
+        stage.offer(weather("munich,de", "Clear", 1));
+        stage.offer(weather("london,gb", "Rain", 1));
+        stage.offer(weather("paris,fr", "Snow", 1));
+        assertEquals(2, stage.queued());
+        assertEquals(1, dropped.getCount());
+
+        startWorkers(1);
+        assertEquals(Arrays.asList("london,gb", "paris,fr"), cities(nextBatch()));
+        assertEquals(0, stage.queued());
+    }
+
+    @Test
+    public void takesBatchesOfAtMostTheBatchSizeInArrivalOrder() throws Exception {
+        stage = new WeatherEventPipeline.Stage("test", 10, 2, batches::add, dropped, coalesced);
+        stage.offer(weather("munich,de", "Clear", 1));
+        stage.offer(weather("london,gb", "Rain", 1));
+        stage.offer(weather("paris,fr", "Snow", 1));
+
+        startWorkers(1);
+        assertEquals(Arrays.asList("munich,de", "london,gb"), cities(nextBatch()));
+        assertEquals(Collections.singletonList("paris,fr"), cities(nextBatch()));
+    }
+
+    @Test
+    public void holdsBackACityWhileItIsInFlight() throws Exception {
+        CountDownLatch munichStarted = new CountDownLatch(1);
+        CountDownLatch releaseMunich = new CountDownLatch(1);
+        stage = new WeatherEventPipeline.Stage("test", 10, 1, batch -> {
+            if (batch.get(0).equals(weather("munich,de", "Clear", 1))) {
+                munichStarted.countDown();
+                await(releaseMunich);
+            }
+            batches.add(batch);
+        }, dropped, coalesced);
+
+        stage.offer(weather("munich,de", "Clear", 1));
+        startWorkers(2);
+        assertTrue(munichStarted.await(5, TimeUnit.SECONDS));
+
+        // the idle worker must not take the newer munich event while the older one is in flight
+        stage.offer(weather("munich,de", "Rain", 2));
+        stage.offer(weather("london,gb", "Rain", 1));
+        assertEquals(Collections.singletonList(weather("london,gb", "Rain", 1)), nextBatch());
+        assertNull(batches.poll(200, TimeUnit.MILLISECONDS));
+
+        releaseMunich.countDown();
+        assertEquals(Collections.singletonList(weather("munich,de", "Clear", 1)), nextBatch());
+        assertEquals(Collections.singletonList(weather("munich,de", "Rain", 2)), nextBatch());
+    }
+
+    @Test
+    public void failingConsumerDoesNotStopTheWorker() throws Exception {
+        Consumer<List<CurrentWeather>> consumer = batch -> {
+            if ("munich,de".equals(batch.get(0).getCity())) {
+                throw new IllegalStateException("broker down");
+            }
+            batches.add(batch);
+        };
+        stage = new WeatherEventPipeline.Stage("test", 10, 1, consumer, dropped, coalesced);
+        stage.offer(weather("munich,de", "Clear", 1));
+        stage.offer(weather("london,gb", "Rain", 1));
+
+        startWorkers(1);
+        assertEquals(Collections.singletonList("london,gb"), cities(nextBatch()));
+    }
+
+    @Test
+    public void stopEndsTheWorkers() throws Exception {
+        stage = new WeatherEventPipeline.Stage("test", 10, 1, batches::add, dropped, coalesced);
+        startWorkers(2);
+        stage.stop();
+
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+            assertFalse(worker.isAlive());
+        }
+    }
+
+    private void startWorkers(int count) {
+        for (int i = 0; i < count; i++) {
+            Thread worker = new Thread(stage::work, "pipeline-test-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    private List<CurrentWeather> nextBatch() throws InterruptedException {
+        List<CurrentWeather> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertTrue("Expected a batch.", batch != null);
+        return batch;
+    }
+
+    private static List<String> cities(List<CurrentWeather> batch) {
+        return batch.stream().map(CurrentWeather::getCity).collect(Collectors.toList());
+    }
+
+    private static CurrentWeather weather(String city, String weather, long observedAt) {
+        return new CurrentWeather(city, weather, observedAt);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}